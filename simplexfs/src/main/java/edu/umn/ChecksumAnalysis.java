@@ -0,0 +1,89 @@
+package edu.umn;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static edu.umn.utils.Checksum.computeChecksum;
+
+public class ChecksumAnalysis {
+    public static void main(String[] args) throws Exception {
+        // Usage: [fileSizeMb ...], defaults to 1, 16, 256 and 1024 MB
+        int[] fileSizesMb = {1, 16, 256, 1024};
+        if (args.length > 0) {
+            fileSizesMb = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                fileSizesMb[i] = Integer.parseInt(args[i]);
+            }
+        }
+        int repetitions = 5;
+
+        List<String> rows = new ArrayList<>();
+        for (int fileSizeMb : fileSizesMb) {
+            Path file = Files.createTempFile("checksum" + fileSizeMb + "Mb", ".db");
+            writeRandomFile(file, fileSizeMb);
+            Runtime runtime = Runtime.getRuntime();
+
+            for (int i = 0; i < repetitions; i++) {
+                // readAllBytes cannot load files of 2 GB or more
+                if ((long) fileSizeMb * 1024 * 1024 < Integer.MAX_VALUE) {
+                    System.gc();
+                    long startTime = System.nanoTime();
+                    String legacy = computeChecksumInMemory(file);
+                    long legacyMillis = (System.nanoTime() - startTime) / 1_000_000;
+                    long legacyHeapMb = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+                    rows.add("readAllBytes," + fileSizeMb + "," + legacyMillis + "," + legacyHeapMb);
+                    System.out.println("readAllBytes " + fileSizeMb + " MB: " + legacyMillis + " ms (" + legacy + ")");
+                }
+
+                System.gc();
+                long startTime = System.nanoTime();
+                String streaming = computeChecksum(file);
+                long streamingMillis = (System.nanoTime() - startTime) / 1_000_000;
+                long streamingHeapMb = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+                rows.add("streaming," + fileSizeMb + "," + streamingMillis + "," + streamingHeapMb);
+                System.out.println("streaming " + fileSizeMb + " MB: " + streamingMillis + " ms (" + streaming + ")");
+            }
+            Files.delete(file);
+        }
+
+        // Save data to a CSV file
+        try (FileWriter writer = new FileWriter("checksum_data.csv")) {
+            writer.write("Implementation,File Size (MB),Checksum Time (ms),Heap Used (MB)\n");
+            for (String row : rows) {
+                writer.write(row + "\n");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void writeRandomFile(Path path, int fileSizeMb) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            byte[] block = new byte[1024 * 1024];
+            Random random = new Random(5105);
+            for (int i = 0; i < fileSizeMb; i++) {
+                random.nextBytes(block);
+                file.write(block);
+            }
+        }
+    }
+
+    // The previous implementation, kept here as the baseline
+    private static String computeChecksumInMemory(Path filePath) throws Exception {
+        byte[] fileBytes = Files.readAllBytes(filePath);
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] checksum = md.digest(fileBytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : checksum) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
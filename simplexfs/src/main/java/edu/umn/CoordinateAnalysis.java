@@ -0,0 +1,111 @@
+package edu.umn;
+
+import edu.umn.utils.NetworkCoordinate;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Compares predicting latencies from Vivaldi network coordinates with a latency table of every pair of nodes.
+// Nodes sit on a synthetic network: points on a 200 ms wide plane behind 1-10 ms access links. Each node measures
+// round trips to random other nodes, with up to 10% jitter, and after each count of SAMPLES_PER_NODE the
+// predictions of random pairs are compared with their true latencies. The table's memory is what LatencyTable
+// needs to hold every pair.
+public class CoordinateAnalysis {
+    private static final int[] NODE_COUNTS = {100, 1_000, 10_000, 100_000};
+    private static final int[] SAMPLES_PER_NODE = {16, 64, 256};
+    private static final int CHECKED_PAIRS = 100_000;
+    // Position, height and error
+    private static final int COORDINATE_BYTES = (NetworkCoordinate.DIMENSIONS + 2) * Double.BYTES;
+
+    public static void main(String[] args) {
+        List<String> rows = new ArrayList<>();
+        for (int nodes : NODE_COUNTS) {
+            Random random = new Random(5105);
+            double[][] positions = new double[nodes][2];
+            double[] accessLinks = new double[nodes];
+            NetworkCoordinate[] coordinates = new NetworkCoordinate[nodes];
+            for (int i = 0; i < nodes; i++) {
+                positions[i][0] = random.nextDouble() * 200;
+                positions[i][1] = random.nextDouble() * 200;
+                accessLinks[i] = 1 + random.nextDouble() * 9;
+                coordinates[i] = NetworkCoordinate.origin();
+            }
+
+            long pairs = (long) nodes * (nodes - 1) / 2;
+            long tableBytes = tableBytes(pairs);
+            long coordinateBytes = (long) nodes * COORDINATE_BYTES;
+            int samples = 0;
+            for (int checkpoint : SAMPLES_PER_NODE) {
+                long startTime = System.nanoTime();
+                for (; samples < checkpoint; samples++) {
+                    for (int i = 0; i < nodes; i++) {
+                        int j = otherNode(random, nodes, i);
+                        double rtt = rtt(positions, accessLinks, i, j) * (1 + random.nextDouble() * 0.1);
+                        coordinates[i] = coordinates[i].update(coordinates[j], rtt, random);
+                    }
+                }
+                double updateNanos = (double) (System.nanoTime() - startTime) / nodes / checkpoint;
+
+                double[] relativeErrors = new double[CHECKED_PAIRS];
+                double sum = 0;
+                startTime = System.nanoTime();
+                for (int k = 0; k < CHECKED_PAIRS; k++) {
+                    int i = random.nextInt(nodes);
+                    int j = otherNode(random, nodes, i);
+                    double predicted = coordinates[i].distanceTo(coordinates[j]);
+                    double rtt = rtt(positions, accessLinks, i, j);
+                    relativeErrors[k] = Math.abs(predicted - rtt) / rtt;
+                    sum += predicted;
+                }
+                double predictNanos = (double) (System.nanoTime() - startTime) / CHECKED_PAIRS;
+                if (sum == 0) {
+                    System.out.println("No latencies predicted");
+                }
+                Arrays.sort(relativeErrors);
+                double medianError = relativeErrors[CHECKED_PAIRS / 2];
+                double p90Error = relativeErrors[CHECKED_PAIRS * 9 / 10];
+
+                System.out.println(nodes + " nodes, " + checkpoint + " samples each: median error " + medianError
+                        + ", 90th percentile " + p90Error + ", table " + tableBytes / 1024 + " KB for " + pairs
+                        + " pairs, coordinates " + coordinateBytes / 1024 + " KB");
+                rows.add(nodes + "," + checkpoint + "," + pairs + "," + tableBytes + "," + coordinateBytes + ","
+                        + COORDINATE_BYTES + "," + medianError + "," + p90Error + "," + updateNanos + "," + predictNanos);
+            }
+        }
+
+        // Save data to a CSV file
+        try (FileWriter writer = new FileWriter("coordinate_data.csv")) {
+            writer.write("Nodes,Samples Per Node,Pairs,Table Memory (bytes),Coordinate Memory (bytes),Memory Per Node (bytes),"
+                    + "Median Relative Error,90th Percentile Relative Error,Update (ns),Prediction (ns)\n");
+            for (String row : rows) {
+                writer.write(row + "\n");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static int otherNode(Random random, int nodes, int node) {
+        int other = random.nextInt(nodes - 1);
+        return other >= node ? other + 1 : other;
+    }
+
+    private static double rtt(double[][] positions, double[] accessLinks, int i, int j) {
+        double dx = positions[i][0] - positions[j][0];
+        double dy = positions[i][1] - positions[j][1];
+        return Math.sqrt(dx * dx + dy * dy) + accessLinks[i] + accessLinks[j];
+    }
+
+    // LatencyTable keeps a long key and an int latency per slot, in a power of two slots at most 3/4 full
+    private static long tableBytes(long pairs) {
+        long capacity = 64;
+        while (pairs * 4 > capacity * 3) {
+            capacity *= 2;
+        }
+        return capacity * (Long.BYTES + Integer.BYTES);
+    }
+}
@@ -0,0 +1,137 @@
+package edu.umn;
+
+import edu.umn.utils.LatencyTable;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Measures latency lookups the way selectBestPeer does them, in a table of 10k nodes, with the primitive
+// LatencyTable and with the previous synchronized String-keyed map. Each lookup run repeats with a writer
+// thread updating latencies concurrently, as measured RTTs do.
+public class LatencyAnalysis {
+    private static final int NODES = 10_000;
+    private static final int FIRST_PORT = 8001;
+    // Latencies known per node: the full row of the local node and random pairs of the others
+    private static final int PAIRS = 2_000_000;
+    private static final int LOOKUPS = 20_000_000;
+    private static final int ROUNDS = 5;
+
+    // The previous implementation, kept for comparison
+    private static class StringKeyedTable {
+        private final Map<String, Integer> latencyMap = new HashMap<>();
+
+        synchronized void addOrUpdateLatency(int node1, int node2, int latency) {
+            latencyMap.put(node1 + "-" + node2, latency);
+            latencyMap.put(node2 + "-" + node1, latency);
+        }
+
+        synchronized int getLatency(int node1, int node2) {
+            return latencyMap.getOrDefault(node1 + "-" + node2, Integer.MAX_VALUE);
+        }
+    }
+
+    private interface Lookup {
+        int getLatency(int node1, int node2);
+    }
+
+    private interface Update {
+        void addOrUpdateLatency(int node1, int node2, int latency);
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> rows = new ArrayList<>();
+
+        long usedBefore = usedMemory();
+        long startTime = System.nanoTime();
+        LatencyTable latencyTable = new LatencyTable();
+        fill(latencyTable::addOrUpdateLatency);
+        long loadMillis = (System.nanoTime() - startTime) / 1_000_000;
+        long tableBytes = usedMemory() - usedBefore;
+        System.out.println("primitive: loaded " + latencyTable.size() + " pairs in " + loadMillis + " ms, "
+                + tableBytes / (1024 * 1024) + " MB");
+        rows.add(measure("primitive", loadMillis, tableBytes, latencyTable::getLatency, latencyTable::addOrUpdateLatency));
+        latencyTable = null;
+
+        usedBefore = usedMemory();
+        startTime = System.nanoTime();
+        StringKeyedTable stringKeyedTable = new StringKeyedTable();
+        fill(stringKeyedTable::addOrUpdateLatency);
+        loadMillis = (System.nanoTime() - startTime) / 1_000_000;
+        tableBytes = usedMemory() - usedBefore;
+        System.out.println("string keys: loaded in " + loadMillis + " ms, " + tableBytes / (1024 * 1024) + " MB");
+        rows.add(measure("string keys", loadMillis, tableBytes, stringKeyedTable::getLatency, stringKeyedTable::addOrUpdateLatency));
+
+        // Save data to a CSV file
+        try (FileWriter writer = new FileWriter("latency_table_data.csv")) {
+            writer.write("Table,Load Time (ms),Memory (MB),Lookup (ns),Lookup With Writer (ns)\n");
+            for (String row : rows) {
+                writer.write(row + "\n");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void fill(Update update) {
+        // The same seed gives both tables the same pairs
+        Random random = new Random(5105);
+        for (int node = FIRST_PORT + 1; node < FIRST_PORT + NODES; node++) {
+            update.addOrUpdateLatency(FIRST_PORT, node, 100 + random.nextInt(4901));
+        }
+        for (int i = NODES - 1; i < PAIRS; i++) {
+            update.addOrUpdateLatency(FIRST_PORT + random.nextInt(NODES), FIRST_PORT + random.nextInt(NODES),
+                    100 + random.nextInt(4901));
+        }
+    }
+
+    private static String measure(String name, long loadMillis, long tableBytes, Lookup lookup, Update update)
+            throws InterruptedException {
+        double lookupNanos = measureLookups(lookup);
+        // A writer updates the local node's latencies while the lookups run
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            Random random = new Random(1);
+            while (writing.get()) {
+                update.addOrUpdateLatency(FIRST_PORT, FIRST_PORT + 1 + random.nextInt(NODES - 1), 100 + random.nextInt(4901));
+            }
+        });
+        writer.start();
+        double contendedNanos = measureLookups(lookup);
+        writing.set(false);
+        writer.join();
+        System.out.println(name + ": " + lookupNanos + " ns per lookup, " + contendedNanos + " ns with a writer");
+        return name + "," + loadMillis + "," + tableBytes / (1024 * 1024) + "," + lookupNanos + "," + contendedNanos;
+    }
+
+    // Mean time of a lookup from the local node, over the best of ROUNDS rounds; the first round warms up the JIT
+    private static double measureLookups(Lookup lookup) {
+        double best = Double.MAX_VALUE;
+        long sum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long startTime = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                sum += lookup.getLatency(FIRST_PORT, FIRST_PORT + 1 + (int) ((i * 7919L) % (NODES - 1)));
+            }
+            best = Math.min(best, (double) (System.nanoTime() - startTime) / LOOKUPS);
+        }
+        if (sum == 0) {
+            System.out.println("No latencies found");
+        }
+        return best;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
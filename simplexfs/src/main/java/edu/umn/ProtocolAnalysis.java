@@ -0,0 +1,158 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.server.TrackingServer;
+import edu.umn.utils.Protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ProtocolAnalysis {
+    // Port of the responder that speaks the previous ObjectOutputStream protocol
+    private static final int LEGACY_PORT = 9001;
+
+    @FunctionalInterface
+    private interface Exchange {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Usage: [iterations]
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        // Get the path to the resources directory
+        URL resourceUrl = ProtocolAnalysis.class.getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Resources not found");
+        }
+        String resourcePath = resourceUrl.getPath();
+        String latencyFilePath = resourcePath + "/latency.txt";
+
+        // Start the tracking server and one peer
+        TrackingServer server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        Thread.sleep(1000);
+        PeerNode peerNode = new PeerNode(resourcePath + "/peer1", 8001, latencyFilePath, "localhost", 8080);
+        peerNode.initialize();
+        new Thread(() -> peerNode.start()).start();
+        Thread.sleep(1000);
+        peerNode.updateFileList();
+        String filename = peerNode.listFiles().get(0);
+        List<String> peerList = peerNode.findFile(filename);
+
+        // Answer GET_LOAD and FIND the way the object stream protocol did, with the same data
+        ServerSocket legacyServer = new ServerSocket(LEGACY_PORT);
+        Thread legacyThread = new Thread(() -> serveLegacy(legacyServer, peerList));
+        legacyThread.start();
+
+        List<String> rows = new ArrayList<>();
+        rows.add(measure("binary", "GET_LOAD", iterations, () -> {
+            try (Socket socket = new Socket("localhost", 8001);
+                 DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                 DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                Protocol.writeMessage(outputStream, Protocol.GET_LOAD);
+                Protocol.readMessage(inputStream, Protocol.LOAD).payload.readInt();
+            }
+        }));
+        rows.add(measure("binary", "FIND", iterations, () -> peerNode.findFile(filename)));
+        rows.add(measure("object stream", "GET_LOAD", iterations, () -> {
+            try (Socket socket = new Socket("localhost", LEGACY_PORT);
+                 ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+                 ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
+                out.writeObject("GET_LOAD");
+                out.flush();
+                in.readInt();
+            }
+        }));
+        rows.add(measure("object stream", "FIND", iterations, () -> {
+            try (Socket socket = new Socket("localhost", LEGACY_PORT);
+                 ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+                 ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
+                out.writeObject("FIND");
+                out.writeObject(filename);
+                out.flush();
+                in.readObject();
+            }
+        }));
+
+        // Save data to a CSV file
+        try (FileWriter writer = new FileWriter("protocol_data.csv")) {
+            writer.write("Protocol,Request,Mean Latency (us),Median Latency (us),P99 Latency (us)\n");
+            for (String row : rows) {
+                writer.write(row + "\n");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        legacyServer.close();
+        legacyThread.join();
+        peerNode.stop();
+        server.stop();
+    }
+
+    private static String measure(String protocol, String request, int iterations, Exchange exchange) throws Exception {
+        // Warm up the JIT before measuring
+        for (int i = 0; i < iterations / 10; i++) {
+            exchange.run();
+        }
+        long[] latencies = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long startTime = System.nanoTime();
+            exchange.run();
+            latencies[i] = (System.nanoTime() - startTime) / 1000;
+        }
+        Arrays.sort(latencies);
+        double mean = Arrays.stream(latencies).average().orElse(0);
+        long median = latencies[iterations / 2];
+        long p99 = latencies[Math.min(iterations - 1, iterations * 99 / 100)];
+        System.out.println(protocol + " " + request + ": mean " + mean + " us, median " + median + " us, p99 " + p99 + " us");
+        return protocol + "," + request + "," + mean + "," + median + "," + p99;
+    }
+
+    private static void serveLegacy(ServerSocket legacyServer, List<String> peerList) {
+        // Hand connections to a cached pool like PeerNode and TrackingServer do
+        ExecutorService executor = Executors.newCachedThreadPool();
+        while (!legacyServer.isClosed()) {
+            try {
+                Socket socket = legacyServer.accept();
+                executor.submit(() -> handleLegacyConnection(socket, peerList));
+            } catch (IOException e) {
+                if (!legacyServer.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        executor.shutdown();
+    }
+
+    private static void handleLegacyConnection(Socket socket, List<String> peerList) {
+        try (ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream())) {
+            String requestType = (String) in.readObject();
+            if ("GET_LOAD".equals(requestType)) {
+                out.writeInt(0);
+            } else if ("FIND".equals(requestType)) {
+                in.readObject();
+                out.writeObject(new ArrayList<>(peerList));
+            }
+            out.flush();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+}
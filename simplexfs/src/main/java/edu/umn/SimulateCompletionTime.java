@@ -0,0 +1,125 @@
+package edu.umn;
+
+import edu.umn.peer.PeerSelectionStrategy;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+// Simulates downloads of files of different sizes from replicas with different latencies and bandwidths, and
+// reports the download times each peer selection strategy achieves.
+// A replica shares its bandwidth between the transfers it serves, so a transfer takes the latency plus
+// size / bandwidth times the number of transfers at its start. Downloads arrive at LOAD_FACTOR of the
+// replicas' total bandwidth. Each client learns the bandwidth of a replica from its own past downloads like
+// PeerNode does, and sees the current loads.
+public class SimulateCompletionTime {
+    private static final long[] FILE_SIZES = {100 * 1024, 1024 * 1024, 10 * 1024 * 1024, 100 * 1024 * 1024};
+    private static final int REPLICAS = 8;
+    private static final int CLIENTS = 50;
+    private static final int DOWNLOADS = 10000;
+    private static final double LOAD_FACTOR = 0.5;
+    // Replica bandwidths are spread evenly on a log scale between 1 and 100 MB/s
+    private static final double MIN_BYTES_PER_SECOND = 1e6;
+    private static final double MAX_BYTES_PER_SECOND = 1e8;
+    private static final long MIN_SAMPLE_BYTES = 256 * 1024;
+    private static final double ALPHA = 0.25;
+
+    public static void main(String[] args) {
+        Map<String, PeerSelectionStrategy> strategies = new LinkedHashMap<>();
+        strategies.put("weighted", PeerSelectionStrategy.weighted(0.5));
+        strategies.put("latency", PeerSelectionStrategy.latencyOnly());
+        strategies.put("least-loaded", PeerSelectionStrategy.leastLoaded());
+        strategies.put("completion-time", PeerSelectionStrategy.forName("completion-time", 0.5));
+
+        List<String> rows = new ArrayList<>();
+        for (long fileSize : FILE_SIZES) {
+            for (Map.Entry<String, PeerSelectionStrategy> strategy : strategies.entrySet()) {
+                double[] result = simulate(strategy.getValue(), fileSize);
+                System.out.println(strategy.getKey() + ", " + fileSize / 1024 + " KB: mean " + (long) result[0]
+                        + " ms, p50 " + (long) result[1] + " ms, p99 " + (long) result[2] + " ms");
+                rows.add(strategy.getKey() + "," + fileSize + "," + result[0] + "," + result[1] + "," + result[2]);
+            }
+        }
+
+        // Save data to a CSV file
+        try (FileWriter writer = new FileWriter("completion_time_data.csv")) {
+            writer.write("Strategy,File Size (bytes),Mean Download Time (ms),P50 Download Time (ms),P99 Download Time (ms)\n");
+            for (String row : rows) {
+                writer.write(row + "\n");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Returns the mean, p50 and p99 download time in ms
+    private static double[] simulate(PeerSelectionStrategy strategy, long fileSize) {
+        // The same seed gives every strategy the same replicas, latencies and arrivals
+        Random random = new Random(fileSize);
+        double[] bandwidths = new double[REPLICAS];
+        double totalBandwidth = 0;
+        for (int i = 0; i < REPLICAS; i++) {
+            bandwidths[i] = MIN_BYTES_PER_SECOND * Math.pow(MAX_BYTES_PER_SECOND / MIN_BYTES_PER_SECOND, (double) i / (REPLICAS - 1));
+            totalBandwidth += bandwidths[i];
+        }
+        int[][] latencies = new int[CLIENTS][REPLICAS];
+        double[][] measured = new double[CLIENTS][REPLICAS];
+        for (int client = 0; client < CLIENTS; client++) {
+            for (int i = 0; i < REPLICAS; i++) {
+                latencies[client][i] = random.nextInt(190) + 10;
+                measured[client][i] = -1;
+            }
+        }
+
+        // Downloads per ms, so that the transfers use LOAD_FACTOR of the total bandwidth
+        double arrivalRate = LOAD_FACTOR * totalBandwidth / fileSize / 1000;
+        List<PriorityQueue<Double>> activeTransfers = new ArrayList<>();
+        for (int i = 0; i < REPLICAS; i++) {
+            activeTransfers.add(new PriorityQueue<>());
+        }
+        double[] downloadTimes = new double[DOWNLOADS];
+        double now = 0;
+
+        for (int d = 0; d < DOWNLOADS; d++) {
+            now += -Math.log(1 - random.nextDouble()) / arrivalRate;
+            for (PriorityQueue<Double> transfers : activeTransfers) {
+                while (!transfers.isEmpty() && transfers.peek() <= now) {
+                    transfers.poll();
+                }
+            }
+
+            int client = random.nextInt(CLIENTS);
+            int best = -1;
+            double bestScore = Double.MAX_VALUE;
+            for (int i = 0; i < REPLICAS; i++) {
+                int load = strategy.usesLoad() ? activeTransfers.get(i).size() : 0;
+                double score = strategy.score(latencies[client][i], load, measured[client][i],
+                        strategy.usesFileSize() ? fileSize : -1);
+                if (score < bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+
+            double transferMillis = fileSize * 1000.0 / bandwidths[best] * (1 + activeTransfers.get(best).size());
+            activeTransfers.get(best).add(now + latencies[client][best] + transferMillis);
+            downloadTimes[d] = latencies[client][best] + transferMillis;
+            // The client learns the bandwidth it got, as the throughput estimator does
+            if (fileSize >= MIN_SAMPLE_BYTES) {
+                double sample = fileSize * 1000.0 / transferMillis;
+                measured[client][best] = measured[client][best] < 0 ? sample
+                        : (1 - ALPHA) * measured[client][best] + ALPHA * sample;
+            }
+        }
+
+        double mean = Arrays.stream(downloadTimes).average().orElse(0);
+        Arrays.sort(downloadTimes);
+        return new double[]{mean, downloadTimes[DOWNLOADS / 2], downloadTimes[(int) (DOWNLOADS * 0.99)]};
+    }
+}
@@ -0,0 +1,104 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.server.TrackingServer;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class SimulateConcurrentUpload {
+    public static void main(String[] args) throws Exception {
+        // Usage: [fileSizeMb] [maxDownloaders]
+        int fileSizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int maxDownloaders = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        String fileName = "upload" + fileSizeMb + "Mb.db";
+
+        // Get the path to the resources directory
+        URL resourceUrl = SimulateConcurrentUpload.class.getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Resources not found");
+        }
+        String latencyFilePath = resourceUrl.getPath() + "/latency.txt";
+
+        // The uploading peer shares a single generated file
+        Path uploaderDirectory = Files.createTempDirectory("uploader");
+        byte[] content = new byte[fileSizeMb * 1024 * 1024];
+        new Random(5105).nextBytes(content);
+        Files.write(uploaderDirectory.resolve(fileName), content);
+
+        // Start the tracking server
+        TrackingServer server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        Thread.sleep(1000);
+
+        PeerNode uploader = new PeerNode(uploaderDirectory.toString(), 8001, latencyFilePath, "localhost", 8080);
+        uploader.initialize();
+        new Thread(() -> uploader.start()).start();
+
+        // Start one downloading peer per concurrent upload
+        List<PeerNode> downloaders = new ArrayList<>();
+        List<Path> downloaderDirectories = new ArrayList<>();
+        for (int i = 0; i < maxDownloaders; i++) {
+            Path directory = Files.createTempDirectory("downloader");
+            PeerNode downloader = new PeerNode(directory.toString(), 8002 + i, latencyFilePath, "localhost", 8080);
+            new Thread(() -> downloader.start()).start();
+            downloaders.add(downloader);
+            downloaderDirectories.add(directory);
+        }
+        Thread.sleep(1000);
+        uploader.updateFileList();
+
+        // Measure aggregate upload throughput for 1, 2, 4, ... simultaneous downloads
+        List<String> rows = new ArrayList<>();
+        for (int n = 1; n <= maxDownloaders; n *= 2) {
+            CountDownLatch startSignal = new CountDownLatch(1);
+            ExecutorService downloadExecutor = Executors.newFixedThreadPool(n);
+            for (int i = 0; i < n; i++) {
+                PeerNode downloader = downloaders.get(i);
+                Path target = downloaderDirectories.get(i).resolve(fileName);
+                downloadExecutor.submit(() -> {
+                    startSignal.await();
+                    downloader.downloadFile(fileName, "localhost", 8001);
+                    Files.deleteIfExists(target);
+                    return null;
+                });
+            }
+            long startTime = System.nanoTime();
+            startSignal.countDown();
+            downloadExecutor.shutdown();
+            downloadExecutor.awaitTermination(10, TimeUnit.MINUTES);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            double throughput = (double) n * fileSizeMb * 1000 / Math.max(1, elapsedMillis);
+            System.out.println(n + " concurrent uploads: " + elapsedMillis + " ms, " + throughput + " MB/s");
+            rows.add(n + "," + elapsedMillis + "," + throughput);
+        }
+
+        // Save data to a CSV file
+        try (FileWriter writer = new FileWriter("concurrent_upload_data.csv")) {
+            writer.write("Concurrent Uploads,Total Time (ms),Aggregate Throughput (MB/s)\n");
+            for (String row : rows) {
+                writer.write(row + "\n");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // Stop the peer nodes and the tracking server
+        uploader.stop();
+        for (PeerNode downloader : downloaders) {
+            downloader.stop();
+        }
+        server.stop();
+        Files.deleteIfExists(uploaderDirectory.resolve(fileName));
+    }
+}
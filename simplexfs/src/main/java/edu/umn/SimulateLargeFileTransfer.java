@@ -0,0 +1,87 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.server.TrackingServer;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SimulateLargeFileTransfer {
+    public static void main(String[] args) throws Exception {
+        // Usage: [fileSizeMb] [repetitions]
+        int fileSizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        String fileName = "transfer" + fileSizeMb + "Mb.db";
+
+        // Get the path to the resources directory
+        URL resourceUrl = SimulateLargeFileTransfer.class.getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Resources not found");
+        }
+        String latencyFilePath = resourceUrl.getPath() + "/latency.txt";
+
+        // Generate the large file in 1 MB blocks to keep the heap small
+        Path senderDirectory = Files.createTempDirectory("sender");
+        Path receiverDirectory = Files.createTempDirectory("receiver");
+        try (RandomAccessFile file = new RandomAccessFile(senderDirectory.resolve(fileName).toFile(), "rw")) {
+            byte[] block = new byte[1024 * 1024];
+            Random random = new Random(5105);
+            for (int i = 0; i < fileSizeMb; i++) {
+                random.nextBytes(block);
+                file.write(block);
+            }
+        }
+
+        // Start the tracking server
+        TrackingServer server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        Thread.sleep(1000);
+
+        PeerNode sender = new PeerNode(senderDirectory.toString(), 8001, latencyFilePath, "localhost", 8080);
+        sender.initialize();
+        PeerNode receiver = new PeerNode(receiverDirectory.toString(), 8002, latencyFilePath, "localhost", 8080);
+        new Thread(() -> sender.start()).start();
+        new Thread(() -> receiver.start()).start();
+        Thread.sleep(1000);
+        sender.updateFileList();
+
+        // Alternate between the buffered stream path and the zero-copy path
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < repetitions; i++) {
+            for (boolean zeroCopy : new boolean[]{false, true}) {
+                sender.setZeroCopyEnabled(zeroCopy);
+                long startTime = System.nanoTime();
+                receiver.downloadFile(fileName, "localhost", 8001);
+                long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+                double throughput = (double) fileSizeMb * 1000 / Math.max(1, elapsedMillis);
+                String mode = zeroCopy ? "transferTo" : "stream";
+                System.out.println(mode + ": " + elapsedMillis + " ms, " + throughput + " MB/s");
+                rows.add(mode + "," + fileSizeMb + "," + elapsedMillis + "," + throughput);
+                Files.deleteIfExists(receiverDirectory.resolve(fileName));
+            }
+        }
+
+        // Save data to a CSV file
+        try (FileWriter writer = new FileWriter("transfer_data.csv")) {
+            writer.write("Send Path,File Size (MB),Download Time (ms),Throughput (MB/s)\n");
+            for (String row : rows) {
+                writer.write(row + "\n");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // Stop the peer nodes and the tracking server
+        sender.stop();
+        receiver.stop();
+        server.stop();
+        Files.deleteIfExists(senderDirectory.resolve(fileName));
+    }
+}
@@ -0,0 +1,129 @@
+package edu.umn;
+
+import edu.umn.peer.PeerSelectionStrategy;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Simulates downloads of one file with the built-in peer selection strategies and reports how the tail
+// download time and the number of load probes change with the number of replicas.
+// Each replica serves one download at a time in arrival order and downloads arrive at LOAD_FACTOR of the
+// replicas' total capacity. Clients see replica loads as of the last load push, like the load cache does.
+public class SimulatePeerSelection {
+    private static final int[] REPLICA_COUNTS = {2, 4, 8, 16, 32};
+    private static final int CLIENTS = 50;
+    private static final int DOWNLOADS = 20000;
+    private static final double LOAD_FACTOR = 0.8;
+    private static final double MEAN_SERVICE_MILLIS = 100;
+    private static final double LOAD_PUSH_INTERVAL_MILLIS = 200;
+
+    public static void main(String[] args) {
+        Map<String, PeerSelectionStrategy> strategies = new LinkedHashMap<>();
+        strategies.put("weighted", PeerSelectionStrategy.weighted(0.5));
+        strategies.put("latency", PeerSelectionStrategy.latencyOnly());
+        strategies.put("least-loaded", PeerSelectionStrategy.leastLoaded());
+        strategies.put("power-of-two", PeerSelectionStrategy.powerOfChoices(2, PeerSelectionStrategy.leastLoaded()));
+
+        List<String> rows = new ArrayList<>();
+        for (int replicas : REPLICA_COUNTS) {
+            for (Map.Entry<String, PeerSelectionStrategy> strategy : strategies.entrySet()) {
+                double[] result = simulate(strategy.getValue(), replicas);
+                System.out.println(strategy.getKey() + ", " + replicas + " replicas: p50 " + (long) result[0]
+                        + " ms, p99 " + (long) result[1] + " ms, max " + (long) result[2] + " ms, "
+                        + result[3] + " probes per download");
+                rows.add(strategy.getKey() + "," + replicas + "," + result[0] + "," + result[1] + ","
+                        + result[2] + "," + result[3]);
+            }
+        }
+
+        // Save data to a CSV file
+        try (FileWriter writer = new FileWriter("peer_selection_data.csv")) {
+            writer.write("Strategy,Replicas,P50 Download Time (ms),P99 Download Time (ms),Max Download Time (ms),Probes per Download\n");
+            for (String row : rows) {
+                writer.write(row + "\n");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Returns the p50, p99 and max download time in ms and the mean number of probes per download
+    private static double[] simulate(PeerSelectionStrategy strategy, int replicas) {
+        // The same seed gives every strategy the same latencies, arrivals and service times
+        Random random = new Random(replicas);
+        int[][] latencies = new int[CLIENTS][replicas];
+        for (int[] row : latencies) {
+            for (int i = 0; i < replicas; i++) {
+                row[i] = random.nextInt(190) + 10;
+            }
+        }
+        List<String> candidates = new ArrayList<>();
+        Map<String, Integer> replicaIndex = new LinkedHashMap<>();
+        for (int i = 0; i < replicas; i++) {
+            String peer = "127.0.0.1:" + (9000 + i) + ":0000";
+            candidates.add(peer);
+            replicaIndex.put(peer, i);
+        }
+
+        double arrivalRate = LOAD_FACTOR * replicas / MEAN_SERVICE_MILLIS;
+        double[] busyUntil = new double[replicas];
+        // Finish times of the downloads each replica still has to complete, in order
+        List<ArrayDeque<Double>> queues = new ArrayList<>();
+        for (int i = 0; i < replicas; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+        int[] pushedLoads = new int[replicas];
+        double nextPush = 0;
+        double[] downloadTimes = new double[DOWNLOADS];
+        long probes = 0;
+        double now = 0;
+
+        for (int d = 0; d < DOWNLOADS; d++) {
+            now += -Math.log(1 - random.nextDouble()) / arrivalRate;
+            for (ArrayDeque<Double> queue : queues) {
+                while (!queue.isEmpty() && queue.peekFirst() <= now) {
+                    queue.pollFirst();
+                }
+            }
+            while (nextPush <= now) {
+                for (int i = 0; i < replicas; i++) {
+                    pushedLoads[i] = queues.get(i).size();
+                }
+                nextPush += LOAD_PUSH_INTERVAL_MILLIS;
+            }
+
+            int client = random.nextInt(CLIENTS);
+            List<String> sampled = strategy.sample(candidates);
+            if (strategy.usesLoad()) {
+                probes += sampled.size();
+            }
+            int best = -1;
+            double bestScore = Double.MAX_VALUE;
+            for (String peer : sampled) {
+                int i = replicaIndex.get(peer);
+                double score = strategy.score(latencies[client][i], strategy.usesLoad() ? pushedLoads[i] : 0);
+                if (score < bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+
+            double serviceMillis = -Math.log(1 - random.nextDouble()) * MEAN_SERVICE_MILLIS;
+            double start = Math.max(now + latencies[client][best], busyUntil[best]);
+            busyUntil[best] = start + serviceMillis;
+            queues.get(best).addLast(busyUntil[best]);
+            downloadTimes[d] = busyUntil[best] - now;
+        }
+
+        Arrays.sort(downloadTimes);
+        return new double[]{downloadTimes[DOWNLOADS / 2], downloadTimes[(int) (DOWNLOADS * 0.99)],
+                downloadTimes[DOWNLOADS - 1], (double) probes / DOWNLOADS};
+    }
+}
@@ -0,0 +1,190 @@
+package edu.umn;
+
+import edu.umn.server.TrackingServer;
+import edu.umn.utils.Protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class SimulateTrackerLoad {
+    private static final int TRACKER_PORT = 8080;
+    private static final int FILE_COUNT = 100;
+    private static final int WARMUP_SECONDS = 1;
+
+    public static void main(String[] args) throws Exception {
+        // Usage: [seconds] [pipelineDepth] [connections...]
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int pipelineDepth = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        List<Integer> connectionCounts = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            connectionCounts.add(Integer.parseInt(args[i]));
+        }
+        if (connectionCounts.isEmpty()) {
+            connectionCounts = List.of(16, 256, 2000);
+        }
+
+        List<String> rows = new ArrayList<>();
+        for (boolean eventLoop : new boolean[]{false, true}) {
+            String mode = eventLoop ? "event loop" : "blocking";
+            for (int connections : connectionCounts) {
+                TrackingServer server = new TrackingServer(TRACKER_PORT);
+                server.setEventLoopEnabled(eventLoop);
+                new Thread(() -> server.start()).start();
+                Thread.sleep(1000);
+                registerFiles();
+
+                long[] result = runLoad(connections, pipelineDepth, seconds);
+                double requestsPerSecond = (double) result[0] / seconds;
+                double meanLatencyMillis = result[0] == 0 ? 0 : (double) result[1] / result[0] / 1_000_000;
+                System.out.println(mode + ", " + connections + " connections: " + (long) requestsPerSecond
+                        + " FIND/s, mean latency " + meanLatencyMillis + " ms, " + result[2] + " threads");
+                rows.add(mode + "," + connections + "," + pipelineDepth + "," + result[0] + ","
+                        + requestsPerSecond + "," + meanLatencyMillis + "," + result[2]);
+
+                server.stop();
+                Thread.sleep(1000);
+            }
+        }
+
+        // Save data to a CSV file
+        try (FileWriter writer = new FileWriter("tracker_load_data.csv")) {
+            writer.write("Mode,Connections,Pipeline Depth,Requests,Requests per Second,Mean Latency (ms),Threads\n");
+            for (String row : rows) {
+                writer.write(row + "\n");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void registerFiles() throws IOException {
+        // One fake peer shares FILE_COUNT files, so that every FIND returns a peer list
+        Map<String, String> fileList = new HashMap<>();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            fileList.put(fileName(i), "00".repeat(32));
+        }
+        try (Socket socket = new Socket("localhost", TRACKER_PORT);
+             DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            Protocol.writeMessage(outputStream, Protocol.UPDATE_LIST, payload -> {
+                payload.writeInt(9999);
+                payload.writeLong(0);
+                Protocol.writeFileList(payload, fileList);
+            });
+            Protocol.readMessage(inputStream, Protocol.UPDATE_LIST_SUCCESS);
+        }
+    }
+
+    private static String fileName(int index) {
+        return "load" + index + ".db";
+    }
+
+    // Returns the completed requests, their summed latency in nanoseconds and the JVM thread count under load
+    private static long[] runLoad(int connections, int pipelineDepth, int seconds) throws Exception {
+        int clientThreads = Math.min(connections, Runtime.getRuntime().availableProcessors());
+        ExecutorService clients = Executors.newFixedThreadPool(clientThreads);
+        long measureStart = System.nanoTime() + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        long deadline = measureStart + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int i = 0; i < clientThreads; i++) {
+            int clientConnections = connections / clientThreads + (i < connections % clientThreads ? 1 : 0);
+            results.add(clients.submit(() -> runClient(clientConnections, pipelineDepth, measureStart, deadline)));
+        }
+        // Threads alive while every connection is open
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(measureStart - System.nanoTime()) + 500);
+        long threads = Thread.activeCount();
+
+        long[] total = new long[3];
+        for (Future<long[]> result : results) {
+            total[0] += result.get()[0];
+            total[1] += result.get()[1];
+        }
+        total[2] = threads;
+        clients.shutdown();
+        return total;
+    }
+
+    // One client thread drives its connections from a selector, keeping pipelineDepth FIND requests
+    // in flight on each. The request id of a request is its slot in the connection's pipeline
+    private static long[] runClient(int connections, int pipelineDepth, long measureStart, long deadline) throws IOException {
+        long completed = 0;
+        long latencyNanos = 0;
+        int nextFile = 0;
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", TRACKER_PORT));
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                long[] sendTimes = new long[pipelineDepth];
+                channel.register(selector, SelectionKey.OP_READ, new Object[]{ByteBuffer.allocate(64 * 1024), sendTimes});
+                for (int slot = 0; slot < pipelineDepth; slot++) {
+                    sendTimes[slot] = System.nanoTime();
+                    sendFind(channel, slot, fileName(nextFile++ % FILE_COUNT));
+                }
+            }
+            while (System.nanoTime() < deadline) {
+                selector.select(100);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    ByteBuffer buffer = (ByteBuffer) ((Object[]) key.attachment())[0];
+                    long[] sendTimes = (long[]) ((Object[]) key.attachment())[1];
+                    if (channel.read(buffer) < 0) {
+                        throw new IOException("Tracking server closed the connection");
+                    }
+                    buffer.flip();
+                    while (buffer.remaining() >= Protocol.HEADER_SIZE) {
+                        int length = buffer.getInt(buffer.position() + Protocol.HEADER_SIZE - 4);
+                        if (buffer.remaining() < Protocol.HEADER_SIZE + length) {
+                            break;
+                        }
+                        int slot = buffer.getInt(buffer.position() + 2);
+                        buffer.position(buffer.position() + Protocol.HEADER_SIZE + length);
+                        long now = System.nanoTime();
+                        if (now >= measureStart) {
+                            completed++;
+                            latencyNanos += now - sendTimes[slot];
+                        }
+                        sendTimes[slot] = now;
+                        sendFind(channel, slot, fileName(nextFile++ % FILE_COUNT));
+                    }
+                    buffer.compact();
+                }
+                selector.selectedKeys().clear();
+            }
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        }
+        return new long[]{completed, latencyNanos};
+    }
+
+    private static void sendFind(SocketChannel channel, int requestId, String filename) throws IOException {
+        byte[] name = filename.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(Protocol.HEADER_SIZE + 2 + name.length);
+        frame.put(Protocol.VERSION).put(Protocol.FIND).putInt(requestId).putInt(2 + name.length);
+        frame.putShort((short) name.length).put(name);
+        frame.flip();
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.utils.Protocol;
+import edu.umn.utils.ThreadPools;
+
+import java.io.BufferedReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Compares a peer serving many concurrent connections on platform threads and on virtual threads.
+// Each mode runs the peer in a child JVM so that its memory and OS thread count can be read from /proc,
+// while this process holds the client connections and keeps a GET_LOAD request in flight on each.
+public class SimulateVirtualThreads {
+    private static final int PEER_PORT = 8001;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("serve")) {
+            serve();
+            return;
+        }
+        // Usage: [connections] [seconds]
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        List<String> rows = new ArrayList<>();
+        for (boolean virtualThreads : new boolean[]{false, true}) {
+            rows.add(runMode(virtualThreads, connections, seconds));
+        }
+
+        // Save data to a CSV file
+        try (FileWriter writer = new FileWriter("virtual_thread_data.csv")) {
+            writer.write("Threads,Connections,Requests per Second,Server RSS (MB),Server OS Threads\n");
+            for (String row : rows) {
+                writer.write(row + "\n");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String runMode(boolean virtualThreads, int connections, int seconds) throws Exception {
+        String javaBin = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process server = new ProcessBuilder(javaBin, "-D" + ThreadPools.VIRTUAL_THREADS_PROPERTY + "=" + virtualThreads,
+                "-cp", System.getProperty("java.class.path"), SimulateVirtualThreads.class.getName(), "serve")
+                .redirectErrorStream(true)
+                .start();
+        BufferedReader serverOutput = new BufferedReader(new InputStreamReader(server.getInputStream()));
+        String mode = null;
+        String line;
+        while ((line = serverOutput.readLine()) != null && !line.equals("READY")) {
+            if (line.startsWith("MODE ")) {
+                mode = line.substring(5);
+            }
+        }
+        // Drain the rest of the output so that the child never blocks on a full pipe
+        Thread drain = new Thread(() -> serverOutput.lines().forEach(output -> { }));
+        drain.setDaemon(true);
+        drain.start();
+
+        long[] result = runLoad(connections, seconds, server.pid());
+        double requestsPerSecond = (double) result[0] / seconds;
+        double rssMb = result[1] / 1024.0;
+        System.out.println(mode + " threads, " + connections + " connections: " + (long) requestsPerSecond
+                + " GET_LOAD/s, server RSS " + rssMb + " MB, " + result[2] + " OS threads");
+
+        server.getOutputStream().close();
+        server.waitFor(30, TimeUnit.SECONDS);
+        server.destroy();
+        Thread.sleep(1000);
+        return mode + "," + connections + "," + requestsPerSecond + "," + rssMb + "," + result[2];
+    }
+
+    // Returns the completed requests and the server's peak RSS in KB and OS thread count
+    private static long[] runLoad(int connections, int seconds, long serverPid) throws IOException {
+        byte[] request = {Protocol.VERSION, Protocol.GET_LOAD, 0, 0, 0, 0, 0, 0, 0, 0};
+        long completed = 0;
+        long peakRssKb = 0;
+        long peakThreads = 0;
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", PEER_PORT));
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(256));
+                channel.write(ByteBuffer.wrap(request));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            long nextSample = 0;
+            while (System.nanoTime() < deadline) {
+                selector.select(100);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    ByteBuffer buffer = (ByteBuffer) key.attachment();
+                    if (channel.read(buffer) < 0) {
+                        throw new IOException("Peer closed a connection");
+                    }
+                    buffer.flip();
+                    // A LOAD response is a header and a 4 byte load index
+                    while (buffer.remaining() >= Protocol.HEADER_SIZE + 4) {
+                        buffer.position(buffer.position() + Protocol.HEADER_SIZE + 4);
+                        completed++;
+                        channel.write(ByteBuffer.wrap(request));
+                    }
+                    buffer.compact();
+                }
+                selector.selectedKeys().clear();
+                if (System.nanoTime() >= nextSample) {
+                    peakRssKb = Math.max(peakRssKb, readStatus(serverPid, "VmRSS:"));
+                    peakThreads = Math.max(peakThreads, readStatus(serverPid, "Threads:"));
+                    nextSample = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        }
+        return new long[]{completed, peakRssKb, peakThreads};
+    }
+
+    // Reads a numeric field of /proc/<pid>/status; -1 where /proc is not available
+    private static long readStatus(long pid, String field) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", String.valueOf(pid), "status"))) {
+                if (line.startsWith(field)) {
+                    return Long.parseLong(line.substring(field.length()).trim().split("\\s+")[0]);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    // Child process: a peer that serves until its standard input is closed
+    private static void serve() throws Exception {
+        URL resourceUrl = SimulateVirtualThreads.class.getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Resources not found");
+        }
+        String latencyFilePath = resourceUrl.getPath() + "/latency.txt";
+        Path directory = Files.createTempDirectory("virtual-threads");
+        PeerNode peerNode = new PeerNode(directory.toString(), PEER_PORT, latencyFilePath, "localhost", 8080);
+        new Thread(peerNode::start).start();
+        Thread.sleep(1000);
+        System.out.println("MODE " + (ThreadPools.isVirtualThreadsEnabled() ? "virtual" : "platform"));
+        System.out.println("READY");
+        while (System.in.read() >= 0) {
+            // Wait for the parent to close the pipe
+        }
+        peerNode.stop();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,123 @@
+package edu.umn.peer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Keeps one persistent, multiplexed connection per destination peer.
+// A background task closes connections that stayed idle for IDLE_TIMEOUT_MILLIS and pings connections
+// idle for HEALTH_CHECK_INTERVAL_MILLIS, so dead connections are dropped before a request needs them.
+// Downloads open bulk connections of their own, which are not shared; the pool only closes them on close().
+class ConnectionPool implements Closeable {
+    private static final long IDLE_TIMEOUT_MILLIS = 60000;
+    private static final long HEALTH_CHECK_INTERVAL_MILLIS = 15000;
+    private static final long PING_TIMEOUT_MILLIS = 5000;
+
+    private final Map<String, PeerConnection> connections;
+    private final Set<PeerConnection> bulkConnections;
+    private final ScheduledExecutorService maintenanceExecutor;
+    private final LoadCache loadCache;
+    private final RttEstimator rttEstimator;
+
+    ConnectionPool(LoadCache loadCache, RttEstimator rttEstimator) {
+        this.connections = new ConcurrentHashMap<>();
+        this.bulkConnections = ConcurrentHashMap.newKeySet();
+        this.loadCache = loadCache;
+        this.rttEstimator = rttEstimator;
+        this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenanceExecutor.scheduleWithFixedDelay(this::evictAndCheck,
+                HEALTH_CHECK_INTERVAL_MILLIS, HEALTH_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Returns the pooled connection to the peer, opening a new one if there is none or the old one failed.
+    // The connect happens outside the map, so a slow peer does not hold up lookups of other peers; if two
+    // threads connect at once, the connection installed first wins and the other is closed
+    PeerConnection acquire(String ipAddress, int port) throws IOException {
+        String address = addressOf(ipAddress, port);
+        PeerConnection connection = connections.get(address);
+        if (connection != null && connection.isHealthy()) {
+            return connection;
+        }
+        PeerConnection opened = new PeerConnection(ipAddress, port, address, loadCache, rttEstimator, false);
+        while (true) {
+            PeerConnection existing = connections.putIfAbsent(address, opened);
+            if (existing == null) {
+                return opened;
+            }
+            if (existing.isHealthy()) {
+                opened.close();
+                return existing;
+            }
+            // Replace the failed connection unless another thread already did
+            if (connections.replace(address, existing, opened)) {
+                existing.close();
+                return opened;
+            }
+        }
+    }
+
+    // Opens a connection for file data that only the caller uses; the caller closes it
+    PeerConnection openBulk(String ipAddress, int port) throws IOException {
+        PeerConnection connection = new PeerConnection(ipAddress, port, addressOf(ipAddress, port), loadCache, rttEstimator, true);
+        bulkConnections.add(connection);
+        return connection;
+    }
+
+    // Connections and cached loads are keyed by resolved address, so that "localhost" and "127.0.0.1" match
+    static String addressOf(String ipAddress, int port) throws UnknownHostException {
+        return InetAddress.getByName(ipAddress).getHostAddress() + ":" + port;
+    }
+
+    int size() {
+        return connections.size();
+    }
+
+    int bulkSize() {
+        bulkConnections.removeIf(connection -> !connection.isHealthy());
+        return bulkConnections.size();
+    }
+
+    private void evictAndCheck() {
+        bulkConnections.removeIf(connection -> !connection.isHealthy());
+        for (Map.Entry<String, PeerConnection> entry : connections.entrySet()) {
+            PeerConnection connection = entry.getValue();
+            boolean evict;
+            if (!connection.isHealthy()) {
+                evict = true;
+            } else if (connection.isIdle(IDLE_TIMEOUT_MILLIS)) {
+                System.out.println("Closing idle connection to " + connection.getAddress());
+                evict = true;
+            } else {
+                evict = connection.isIdle(HEALTH_CHECK_INTERVAL_MILLIS) && !connection.ping(PING_TIMEOUT_MILLIS);
+            }
+            if (evict) {
+                connections.remove(entry.getKey(), connection);
+                connection.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        maintenanceExecutor.shutdownNow();
+        for (PeerConnection connection : connections.values()) {
+            connection.close();
+        }
+        connections.clear();
+        for (PeerConnection connection : bulkConnections) {
+            connection.close();
+        }
+        bulkConnections.clear();
+    }
+}
@@ -0,0 +1,54 @@
+package edu.umn.peer;
+
+import edu.umn.utils.NetworkCoordinate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// This peer's Vivaldi network coordinate and the coordinates of other peers, keyed by resolved ip:port like the
+// RTT estimator. Other peers' coordinates are learned from the peer lists the tracking server returns, and every
+// RTT measured to one of them moves ours. The latency to a peer never measured is then predicted as the distance
+// between the two coordinates, so no table of every pair of peers is needed.
+class CoordinateEstimator {
+    // Coordinates less confident than this predict nothing
+    private static final double MAX_PREDICTION_ERROR = 0.75;
+
+    private final AtomicReference<NetworkCoordinate> local = new AtomicReference<>(NetworkCoordinate.origin());
+    private final Map<String, NetworkCoordinate> remote = new ConcurrentHashMap<>();
+    private final AtomicLong samples = new AtomicLong(0);
+
+    NetworkCoordinate getLocal() {
+        return local.get();
+    }
+
+    long getSamples() {
+        return samples.get();
+    }
+
+    void learn(String address, NetworkCoordinate coordinate) {
+        remote.put(address, coordinate);
+    }
+
+    // Moves our coordinate by an RTT sample; a sample to a peer whose coordinate is unknown is ignored
+    void observe(String address, double rttMillis) {
+        NetworkCoordinate coordinate = remote.get(address);
+        if (coordinate == null) {
+            return;
+        }
+        local.updateAndGet(current -> current.update(coordinate, rttMillis, ThreadLocalRandom.current()));
+        samples.incrementAndGet();
+    }
+
+    // Predicted RTT in ms, or -1 if the peer's coordinate is unknown or either coordinate is not settled yet
+    double predictMillis(String address) {
+        NetworkCoordinate coordinate = remote.get(address);
+        NetworkCoordinate current = local.get();
+        if (coordinate == null || coordinate.getError() > MAX_PREDICTION_ERROR || current.getError() > MAX_PREDICTION_ERROR) {
+            return -1;
+        }
+        return current.distanceTo(coordinate);
+    }
+}
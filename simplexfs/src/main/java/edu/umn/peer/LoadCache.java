@@ -0,0 +1,45 @@
+package edu.umn.peer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Last load index reported by each peer, keyed by resolved ip:port.
+// Loads arrive piggybacked on responses and as periodic pushes from peers this node is connected to,
+// so peer selection can use a fresh entry instead of probing.
+class LoadCache {
+    private static class Entry {
+        private final int load;
+        private final long receivedNanos;
+
+        private Entry(int load, long receivedNanos) {
+            this.load = load;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    private final Map<String, Entry> loads = new ConcurrentHashMap<>();
+
+    void put(String address, int load) {
+        loads.put(address, new Entry(load, System.nanoTime()));
+    }
+
+    // The cached load if it is younger than ttlMillis, otherwise null
+    Integer getFresh(String address, long ttlMillis) {
+        Entry entry = loads.get(address);
+        if (entry == null || System.nanoTime() - entry.receivedNanos > TimeUnit.MILLISECONDS.toNanos(ttlMillis)) {
+            return null;
+        }
+        return entry.load;
+    }
+
+    // The cached load regardless of its age, or -1 if the peer never reported one
+    int getLastKnown(String address) {
+        Entry entry = loads.get(address);
+        return entry == null ? -1 : entry.load;
+    }
+
+    void remove(String address) {
+        loads.remove(address);
+    }
+}
@@ -0,0 +1,48 @@
+package edu.umn.peer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Peer lists (ip:port:checksum entries) the tracking server returned for each file, so that downloading a file
+// that was looked up recently needs no further round trip to the tracker.
+// Files are immutable, so a cached checksum stays valid; the peers that store a file change, so entries expire
+// and are dropped when a download from the listed peers fails.
+class LocationCache {
+    private static class Entry {
+        private final List<String> peerList;
+        private final long receivedNanos;
+
+        private Entry(List<String> peerList, long receivedNanos) {
+            this.peerList = peerList;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    private final Map<String, Entry> locations = new ConcurrentHashMap<>();
+
+    // Files no peer stores are not cached, so they are found as soon as one registers them
+    void put(String filename, List<String> peerList) {
+        if (peerList.isEmpty()) {
+            locations.remove(filename);
+            return;
+        }
+        locations.put(filename, new Entry(Collections.unmodifiableList(new ArrayList<>(peerList)), System.nanoTime()));
+    }
+
+    // A copy of the cached peer list if it is younger than ttlMillis, otherwise null
+    List<String> getFresh(String filename, long ttlMillis) {
+        Entry entry = locations.get(filename);
+        if (entry == null || System.nanoTime() - entry.receivedNanos > TimeUnit.MILLISECONDS.toNanos(ttlMillis)) {
+            return null;
+        }
+        return new ArrayList<>(entry.peerList);
+    }
+
+    void remove(String filename) {
+        locations.remove(filename);
+    }
+}
@@ -0,0 +1,78 @@
+package edu.umn.peer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+
+// Persistent progress of an interrupted download. <name>.part holds the received bytes and
+// <name>.part.state records the checksum being downloaded and how many of those bytes are durable
+class PartialDownload {
+    static final String STATE_SUFFIX = ".state";
+    private final File partialFile;
+    private final Path statePath;
+
+    PartialDownload(File partialFile) {
+        this.partialFile = partialFile;
+        this.statePath = Path.of(partialFile.getPath() + STATE_SUFFIX);
+    }
+
+    File getPartialFile() {
+        return partialFile;
+    }
+
+    // Returns the number of bytes that can be kept when downloading the file with this checksum
+    long resumeOffset(String checksum) {
+        try (BufferedReader br = Files.newBufferedReader(statePath)) {
+            String line = br.readLine();
+            String[] parts = line == null ? new String[0] : line.split(",");
+            if (parts.length == 2 && parts[0].equals(checksum)) {
+                long length = Long.parseLong(parts[1]);
+                if (length <= partialFile.length()) {
+                    return length;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing to resume
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Ignoring unreadable download state " + statePath + ": " + e.getMessage());
+        }
+        // The partial file belongs to another version of the file or is not durable
+        discard();
+        return 0;
+    }
+
+    void checkpoint(String checksum, long length) throws IOException {
+        // Replace the state atomically so that a crash leaves either the old or the new checkpoint
+        Path tempPath = Path.of(statePath + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath)) {
+            writer.write(checksum + "," + length);
+            writer.newLine();
+        }
+        Files.move(tempPath, statePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The download finished and the partial file was moved into place
+    void complete() {
+        try {
+            Files.deleteIfExists(statePath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Throw away the partial file and its state
+    void discard() {
+        try {
+            Files.deleteIfExists(partialFile.toPath());
+            Files.deleteIfExists(statePath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package edu.umn.peer;
+
+import edu.umn.utils.Protocol;
+import edu.umn.utils.ThreadPools;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A persistent connection to another peer. Every request gets its own request id and a reader thread
+// routes each response frame to the exchange waiting for that id, so load probes and other small requests
+// to the same peer share one socket while they are in flight.
+// On such a control connection the reader never blocks on an exchange, so a slow consumer cannot delay the
+// responses to other requests. An exchange that times out or is closed early is abandoned on its own and its
+// later frames are dropped; the connection is closed only if the peer has sent nothing at all since the request.
+// File data travels on bulk connections instead, one per download. There an exchange holds at most
+// BULK_WINDOW_FRAMES unread frames and the reader waits for the consumer, so TCP flow control slows the sender
+// down to the speed of our disk. Closing a bulk exchange before its last frame closes the connection, which is
+// how the sender learns to stop sending the rest of the file.
+class PeerConnection implements Closeable {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    // Unread FILE_CHUNK frames a download may buffer: 4 MB of 64 KB chunks
+    private static final int BULK_WINDOW_FRAMES = 64;
+
+    private final String address;
+    private final int port;
+    private final LoadCache loadCache;
+    private final RttEstimator rttEstimator;
+    private final boolean bulk;
+    private final Socket socket;
+    private final DataInputStream inputStream;
+    private final DataOutputStream outputStream;
+    private final Map<Integer, BlockingQueue<Protocol.Message>> exchanges;
+    private final AtomicInteger nextRequestId;
+    // DOWNLOAD exchanges in flight; responses to other requests may wait behind their frames
+    private final AtomicInteger transfersInFlight;
+    private volatile long lastUsedMillis;
+    // When the reader last received a frame
+    private volatile long lastReceivedNanos;
+    private volatile boolean closed;
+
+    PeerConnection(String ipAddress, int port, String address, LoadCache loadCache, RttEstimator rttEstimator,
+                   boolean bulk) throws IOException {
+        this.address = address;
+        this.port = port;
+        this.loadCache = loadCache;
+        this.rttEstimator = rttEstimator;
+        this.bulk = bulk;
+        this.socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(ipAddress, port), CONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            this.inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        this.exchanges = new ConcurrentHashMap<>();
+        this.nextRequestId = new AtomicInteger(1);
+        this.transfersInFlight = new AtomicInteger(0);
+        this.lastUsedMillis = System.currentTimeMillis();
+        this.lastReceivedNanos = System.nanoTime();
+        ThreadPools.newThread(this::readResponses, (bulk ? "peer-download-" : "peer-connection-") + address).start();
+        if (bulk) {
+            return;
+        }
+        try {
+            // Ask the peer to push its load; the pushes and the immediate answer are recorded by the reader
+            Protocol.writeMessage(outputStream, Protocol.UNSOLICITED, Protocol.SUBSCRIBE_LOAD, null);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // The responses to one request
+    class Exchange implements Closeable {
+        private final int requestId;
+        private final BlockingQueue<Protocol.Message> responses;
+        private final long sentNanos;
+        private final boolean transfer;
+        // Whether the time to the first response is a round-trip sample. Only pings and load probes are: the
+        // peer answers them at once, while a download first waits for the file's lock and disk. A probe sent
+        // while a download is in flight on the connection may wait behind its frames, so it is not sampled either
+        private boolean measured;
+        private boolean finished;
+
+        private Exchange(int requestId, byte opcode) {
+            this.requestId = requestId;
+            this.responses = bulk ? new LinkedBlockingQueue<>(BULK_WINDOW_FRAMES) : new LinkedBlockingQueue<>();
+            this.sentNanos = System.nanoTime();
+            this.transfer = opcode == Protocol.DOWNLOAD;
+            this.measured = (opcode == Protocol.PING || opcode == Protocol.GET_LOAD) && transfersInFlight.get() == 0;
+            if (transfer) {
+                transfersInFlight.incrementAndGet();
+            }
+        }
+
+        // Waits for the next response frame; a peer that sends nothing within the timeout is treated as failed
+        Protocol.Message next(byte expectedOpcode, long timeoutMillis) throws IOException {
+            Protocol.Message message;
+            try {
+                message = responses.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + address);
+            }
+            if (message == null) {
+                abandon();
+                // A peer that is silent on every exchange is gone; one that is still sending is only slow to answer this one
+                if (lastReceivedNanos - sentNanos < 0) {
+                    PeerConnection.this.close();
+                }
+                throw new SocketTimeoutException("No response from " + address + " within " + timeoutMillis + " ms");
+            }
+            lastUsedMillis = System.currentTimeMillis();
+            if (message.opcode == Protocol.ERROR) {
+                finished = true;
+            } else if (measured) {
+                measured = false;
+                if (transfersInFlight.get() == 0) {
+                    rttEstimator.record(address, port, System.nanoTime() - sentNanos);
+                }
+            }
+            return Protocol.checkOpcode(message, expectedOpcode);
+        }
+
+        // Marks the last expected response as received
+        void finish() {
+            finished = true;
+        }
+
+        // Frames the peer still sends for this exchange are dropped by the reader
+        private void abandon() {
+            finished = true;
+            if (exchanges.remove(requestId) != null && transfer) {
+                transfersInFlight.decrementAndGet();
+            }
+            responses.clear();
+        }
+
+        // On a bulk connection the peer would keep sending the rest of an unfinished exchange, so the connection
+        // is closed with it
+        @Override
+        public void close() {
+            boolean unfinished = !finished;
+            abandon();
+            if (unfinished && bulk) {
+                PeerConnection.this.close();
+            }
+        }
+    }
+
+    Exchange send(byte opcode, Protocol.PayloadWriter writer) throws IOException {
+        if (closed) {
+            throw new IOException("Connection to " + address + " is closed");
+        }
+        int requestId = nextRequestId.getAndIncrement();
+        Exchange exchange = new Exchange(requestId, opcode);
+        exchanges.put(requestId, exchange.responses);
+        lastUsedMillis = System.currentTimeMillis();
+        try {
+            Protocol.writeMessage(outputStream, requestId, opcode, writer);
+        } catch (IOException e) {
+            exchange.close();
+            close();
+            throw e;
+        }
+        return exchange;
+    }
+
+    // Sends a request that has a single response frame
+    Protocol.Message request(byte opcode, Protocol.PayloadWriter writer, byte expectedOpcode, long timeoutMillis) throws IOException {
+        try (Exchange exchange = send(opcode, writer)) {
+            Protocol.Message response = exchange.next(expectedOpcode, timeoutMillis);
+            exchange.finish();
+            return response;
+        }
+    }
+
+    // Health check; it does not count as use, so a connection that is only pinged still becomes idle
+    boolean ping(long timeoutMillis) {
+        long lastUsed = lastUsedMillis;
+        try {
+            request(Protocol.PING, null, Protocol.PONG, timeoutMillis);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            lastUsedMillis = lastUsed;
+        }
+    }
+
+    private void readResponses() {
+        try {
+            while (!closed) {
+                Protocol.Message message = Protocol.readMessage(inputStream);
+                lastReceivedNanos = System.nanoTime();
+                recordLoad(message);
+                BlockingQueue<Protocol.Message> responses = exchanges.get(message.requestId);
+                // Frames of abandoned exchanges are dropped
+                if (responses == null) {
+                    continue;
+                }
+                if (bulk) {
+                    responses.put(message);
+                } else {
+                    responses.offer(message);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (!closed) {
+                System.out.println("Connection to " + address + " lost: " + e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    // Responses piggyback the sender's load index: LOAD and PONG carry only the load, FILE_DATA has it after the size
+    private void recordLoad(Protocol.Message message) {
+        int offset;
+        if (message.opcode == Protocol.LOAD || message.opcode == Protocol.PONG) {
+            offset = 0;
+        } else if (message.opcode == Protocol.FILE_DATA) {
+            offset = 8;
+        } else {
+            return;
+        }
+        if (message.body.length >= offset + 4) {
+            loadCache.put(address, ByteBuffer.wrap(message.body).getInt(offset));
+        }
+    }
+
+    String getAddress() {
+        return address;
+    }
+
+    boolean isHealthy() {
+        return !closed && !socket.isClosed();
+    }
+
+    // True if no request is in flight and the connection has not been used for the given time
+    boolean isIdle(long idleMillis) {
+        return exchanges.isEmpty() && System.currentTimeMillis() - lastUsedMillis >= idleMillis;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // Wake every waiting exchange; they see the connection as failed
+        for (BlockingQueue<Protocol.Message> responses : exchanges.values()) {
+            responses.clear();
+            responses.offer(closedMessage());
+        }
+    }
+
+    private static Protocol.Message closedMessage() {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            new DataOutputStream(buffer).writeUTF("Connection closed");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new Protocol.Message(Protocol.ERROR, 0, buffer.toByteArray());
+    }
+}
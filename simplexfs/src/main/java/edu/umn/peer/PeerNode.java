@@ -1,42 +1,158 @@
 package edu.umn.peer;
 
+import edu.umn.utils.ChecksumIndex;
 import edu.umn.utils.LatencyTable;
+import edu.umn.utils.NetworkCoordinate;
+import edu.umn.utils.Protocol;
+import edu.umn.utils.ThreadPools;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
 
+import static edu.umn.utils.Checksum.bytesToHex;
 import static edu.umn.utils.Checksum.computeChecksum;
+import static edu.umn.utils.Checksum.newDigest;
+import static edu.umn.utils.Checksum.updateDigest;
 
 public class PeerNode {
     private final String fileDirectory;
     private final int port;
     private final Map<String, String> fileChecksums;
+    // Per-file locks: uploads of a file share the read lock, a download takes the write lock only to replace the
+    // file with the verified .part file
+    private final Map<String, ReadWriteLock> fileLocks;
+    // Per-file download locks: downloads of the same file take turns writing its .part file
+    private final Map<String, ReentrantLock> downloadLocks;
     private final LatencyTable latencyTable;
+    private final ChecksumIndex checksumIndex;
     private final AtomicInteger loadIndex;
-    private final ThreadPoolExecutor executor;
+    // Runs connection handlers and swarm workers; virtual threads when enabled, see ThreadPools
+    private final ExecutorService executor;
+    // Outgoing connections to other peers, kept open and shared between requests
+    private final ConnectionPool connectionPool;
+    // Incoming connections, closed on stop()
+    private final Set<Socket> acceptedSockets;
     private ServerSocket serverSocket;
     private volatile boolean running;
+    private volatile boolean zeroCopyEnabled = true;
+    private volatile int indexingThreads = Runtime.getRuntime().availableProcessors();
+    private volatile long initializeTimeMillis;
+    private volatile long probeDeadlineMillis = 1000;
+    private volatile long loadCacheTtlMillis = 5000;
+    // Loads reported by other peers; selection probes only peers without a fresh entry
+    private final LoadCache loadCache;
+    // Round-trip times measured on the pooled connections; selection scores peers by them
+    private final RttEstimator rttEstimator;
+    // Our network coordinate and those of the peers in the peer lists received, which predict the latency to
+    // peers the latency table has no entry for
+    private final CoordinateEstimator coordinateEstimator;
+    private volatile NetworkCoordinate reportedCoordinate;
+    private volatile long coordinateReportNanos;
+    // Bandwidth achieved by downloads from each peer, and file sizes by checksum, for completion time estimates
+    private final ThroughputEstimator throughputEstimator;
+    private final Map<String, Long> fileSizes;
+    // Inbound connections of peers that subscribed to this peer's load
+    private final Map<Socket, DataOutputStream> loadSubscribers;
+    private final ScheduledExecutorService loadPushExecutor;
+    private volatile int lastPushedLoad = -1;
+    private volatile long lastLoadPushNanos;
+    private final AtomicLong loadProbes = new AtomicLong(0);
+    private volatile long locationCacheTtlMillis = 30000;
+    // Peer lists returned by the tracking server; downloads use a fresh entry instead of looking the file up again
+    private final LocationCache locationCache;
+    private final AtomicLong trackerLookups = new AtomicLong(0);
+    // The file list the tracking server holds for this peer and its version; guarded by fileListLock
+    private final ReentrantLock fileListLock = new ReentrantLock();
+    private Map<String, String> reportedFiles = new HashMap<>();
+    private long reportedVersion = -1;
+    private final AtomicLong fullFileListUpdates = new AtomicLong(0);
+    private final AtomicLong peerSelections = new AtomicLong(0);
+    private final AtomicLong peerSelectionNanos = new AtomicLong(0);
+    private volatile long lastPeerSelectionNanos;
     private static final int MAX_RETRIES = 3;
-    private static final int BUFFER_SIZE = 4096;
+    // Suffix of files that are still being received; they are never shared
+    private static final String PARTIAL_SUFFIX = ".part";
+    // Received bytes are made durable and recorded for resumption every CHECKPOINT_BYTES
+    private static final long CHECKPOINT_BYTES = 8 * 1024 * 1024;
+    // Chunk size of swarm downloads
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    // A swarm source whose throughput falls below 1/SLOW_PEER_RATIO of the best source is dropped
+    private static final int SLOW_PEER_RATIO = 4;
+    private static final int MIN_CHUNKS_BEFORE_REBALANCE = 3;
+    // Pending connection queue, sized for many peers connecting at once
+    private static final int ACCEPT_BACKLOG = 1024;
+    // Subscribers are sent this peer's load when it changed since the last check, and at least every LOAD_REFRESH_MILLIS
+    private static final int LOAD_PUSH_INTERVAL_MILLIS = 200;
+    private static final int LOAD_REFRESH_MILLIS = 2000;
+    // Our coordinate is reported to the tracking server this often if it moved, and at least every refresh
+    private static final int COORDINATE_REPORT_INTERVAL_MILLIS = 5000;
+    private static final int COORDINATE_REFRESH_MILLIS = 60000;
+    // A load probe that takes longer than this fails and closes the connection to the peer
+    private static final int PROBE_TIMEOUT_MILLIS = 5000;
+    // A peer that sends nothing for this long is treated as failed
+    private static final int RESPONSE_TIMEOUT_MILLIS = 30000;
     private final ServerInfo trackingServer;
 
     public PeerNode(String fileDirectory, int port, String latencyFilePath, String trackingServerIp, int trackingServerPort) {
         this.fileDirectory = fileDirectory;
         this.port = port;
-        this.fileChecksums = new HashMap<>();
-        this.latencyTable = new LatencyTable(latencyFilePath);
+        this.fileChecksums = new ConcurrentHashMap<>();
+        this.fileLocks = new ConcurrentHashMap<>();
+        this.downloadLocks = new ConcurrentHashMap<>();
+        // Without a latency file, latencies come from measurements and network coordinates alone
+        this.latencyTable = latencyFilePath == null ? new LatencyTable() : new LatencyTable(latencyFilePath);
+        this.checksumIndex = ChecksumIndex.forDirectory(fileDirectory);
         this.trackingServer = new ServerInfo(trackingServerIp, trackingServerPort);
         this.loadIndex = new AtomicInteger(0);
-        this.executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+        this.executor = ThreadPools.newTaskExecutor();
+        this.loadCache = new LoadCache();
+        this.coordinateEstimator = new CoordinateEstimator();
+        this.rttEstimator = new RttEstimator(latencyTable, port, coordinateEstimator);
+        this.throughputEstimator = new ThroughputEstimator();
+        this.fileSizes = new ConcurrentHashMap<>();
+        this.connectionPool = new ConnectionPool(loadCache, rttEstimator);
+        this.locationCache = new LocationCache();
+        this.acceptedSockets = ConcurrentHashMap.newKeySet();
+        this.loadSubscribers = new ConcurrentHashMap<>();
+        this.loadPushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "load-push-" + port);
+            thread.setDaemon(true);
+            return thread;
+        });
     }
     private static class ServerInfo {
         private final String ipAddress;
@@ -56,8 +172,66 @@ public class PeerNode {
         }
     }
 
+    // Serve files with FileChannel.transferTo when the socket is channel-backed (default: enabled)
+    public void setZeroCopyEnabled(boolean zeroCopyEnabled) {
+        this.zeroCopyEnabled = zeroCopyEnabled;
+    }
+
+    // Number of threads hashing files in initialize() (default: one per core)
+    public void setIndexingThreads(int indexingThreads) {
+        this.indexingThreads = indexingThreads;
+    }
+
+    // Time selectBestPeer waits for load probes before scoring late peers from their last known load (default: 1000 ms)
+    public void setProbeDeadlineMillis(long probeDeadlineMillis) {
+        this.probeDeadlineMillis = probeDeadlineMillis;
+    }
+
+    // Age up to which a load reported by a peer is used instead of probing it (default: 5000 ms, 0 always probes)
+    public void setLoadCacheTtlMillis(long loadCacheTtlMillis) {
+        this.loadCacheTtlMillis = loadCacheTtlMillis;
+    }
+
+    // Age up to which a peer list from the tracking server is reused by downloads (default: 30000 ms, 0 always
+    // asks the tracking server)
+    public void setLocationCacheTtlMillis(long locationCacheTtlMillis) {
+        this.locationCacheTtlMillis = locationCacheTtlMillis;
+    }
+
+    // Smoothed round-trip time to the peer in ms, or -1 if none was measured yet
+    public double getMeasuredLatencyMillis(String ipAddress, int port) {
+        return rttEstimator.getSmoothedMillis(peerAddress(ipAddress, port));
+    }
+
+    // Number of round-trip times measured to the peer
+    public long getRttSampleCount(String ipAddress, int port) {
+        return rttEstimator.getSamples(peerAddress(ipAddress, port));
+    }
+
+    // Smoothed bytes per second of downloads from the peer, or -1 if none was measured yet
+    public double getMeasuredBytesPerSecond(String ipAddress, int port) {
+        return throughputEstimator.get(peerAddress(ipAddress, port));
+    }
+
+    // This peer's network coordinate
+    public NetworkCoordinate getNetworkCoordinate() {
+        return coordinateEstimator.getLocal();
+    }
+
+    // Number of round-trip times that moved our network coordinate
+    public long getCoordinateSampleCount() {
+        return coordinateEstimator.getSamples();
+    }
+
+    // Round-trip time to the peer in ms predicted from network coordinates, or -1 if it cannot be predicted yet
+    public double getPredictedLatencyMillis(String ipAddress, int port) {
+        return coordinateEstimator.predictMillis(peerAddress(ipAddress, port));
+    }
+
+    // Overrides the latency to a peer; its measured round-trip time starts over from this value
     public void updateLatencyTable(int peerPort, int latency) {
         latencyTable.addOrUpdateLatency(this.port, peerPort, latency);
+        rttEstimator.reset(peerPort);
     }
 
 
@@ -72,43 +246,134 @@ public class PeerNode {
 
 
     public void initialize() {
-        // Scan the file directory and compute checksums
-        try {
-            Files.walk(Path.of(fileDirectory))
-                    .filter(Files::isRegularFile)
+        // Scan the file directory and compute checksums, reusing cached checksums of unchanged files.
+        // The walk runs on this thread while files that need hashing are handed to the indexing pool,
+        // so directory traversal, disk reads and SHA-256 computation overlap
+        long startTime = System.nanoTime();
+        Path directory = Path.of(fileDirectory);
+        Set<String> indexedPaths = ConcurrentHashMap.newKeySet();
+        AtomicInteger hashedFiles = new AtomicInteger(0);
+        ExecutorService indexingExecutor = Executors.newFixedThreadPool(indexingThreads);
+        List<Future<?>> pendingChecksums = new ArrayList<>();
+        // A file that cannot be read is skipped and left out of the shared list; the cached checksums are only
+        // pruned after the whole directory has been walked and hashed, so a failed walk drops no valid entry
+        boolean completed = false;
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.filter(Files::isRegularFile)
+                    .filter(filePath -> !isPartialFile(filePath.getFileName().toString()))
                     .forEach(filePath -> {
-                        String checksum = null;
+                        String relativePath = directory.relativize(filePath).toString();
+                        indexedPaths.add(relativePath);
+                        BasicFileAttributes attributes;
                         try {
-                            checksum = computeChecksum(filePath);
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
+                            attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                            return;
                         }
+                        long lastModified = attributes.lastModifiedTime().toMillis();
+                        String checksum = checksumIndex.getChecksum(relativePath, attributes.size(), lastModified);
                         if (checksum != null) {
                             fileChecksums.put(filePath.getFileName().toString(), checksum);
+                            return;
                         }
+                        pendingChecksums.add(indexingExecutor.submit(() -> {
+                            String computedChecksum;
+                            try {
+                                computedChecksum = computeChecksum(filePath);
+                            } catch (Exception e) {
+                                e.printStackTrace();
+                                return;
+                            }
+                            checksumIndex.putChecksum(relativePath, attributes.size(), lastModified, computedChecksum);
+                            fileChecksums.put(filePath.getFileName().toString(), computedChecksum);
+                            hashedFiles.incrementAndGet();
+                        }));
                     });
-        } catch (IOException e) {
+            for (Future<?> pendingChecksum : pendingChecksums) {
+                pendingChecksum.get();
+            }
+            completed = true;
+        } catch (IOException | UncheckedIOException | ExecutionException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            indexingExecutor.shutdownNow();
         }
+        if (completed) {
+            checksumIndex.retainAll(indexedPaths);
+            checksumIndex.save();
+        } else {
+            System.out.println("Scan of " + fileDirectory + " did not finish; the checksum index is left unchanged");
+        }
+        initializeTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        System.out.println("Hashed " + hashedFiles.get() + " of " + indexedPaths.size() + " files in "
+                + initializeTimeMillis + " ms using " + indexingThreads + " threads");
         // Debug: Print the fileChecksums map
         System.out.println("File checksums: " + fileChecksums);
         // Debug: Print the file names in the fileChecksums map
         System.out.println("File names: " + fileChecksums.keySet());
     }
 
+    // Files of unfinished downloads and their resume state are never shared
+    private static boolean isPartialFile(String name) {
+        return name.endsWith(PARTIAL_SUFFIX) || name.contains(PARTIAL_SUFFIX + PartialDownload.STATE_SUFFIX);
+    }
+
+    // Duration of the last initialize() call
+    public long getInitializeTimeMillis() {
+        return initializeTimeMillis;
+    }
+
+    // Duration of the last selectBestPeer call
+    public long getLastPeerSelectionMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(lastPeerSelectionNanos);
+    }
+
+    // Mean duration of all selectBestPeer calls so far
+    public long getAveragePeerSelectionMicros() {
+        long selections = peerSelections.get();
+        return selections == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(peerSelectionNanos.get() / selections);
+    }
+
+    // Number of GET_LOAD probes sent so far
+    public long getLoadProbeCount() {
+        return loadProbes.get();
+    }
+
+    // Number of FIND and FIND_BATCH requests sent to the tracking server so far
+    public long getTrackerLookupCount() {
+        return trackerLookups.get();
+    }
+
+    // Number of open pooled connections to other peers
+    public int getPooledConnectionCount() {
+        return connectionPool.size();
+    }
+
+    // Number of open connections of downloads in progress
+    public int getDownloadConnectionCount() {
+        return connectionPool.bulkSize();
+    }
+
 
     public void start() {
         System.out.println("Starting peer node on port " + port);
         running = true;
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            this.serverSocket = serverSocket;
+        loadPushExecutor.scheduleWithFixedDelay(this::pushLoad, LOAD_PUSH_INTERVAL_MILLIS, LOAD_PUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        loadPushExecutor.scheduleWithFixedDelay(this::reportCoordinate, COORDINATE_REPORT_INTERVAL_MILLIS, COORDINATE_REPORT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        // Accept through a ServerSocketChannel so that accepted sockets expose a SocketChannel for zero-copy sends
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            serverSocketChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            this.serverSocket = serverSocketChannel.socket();
             while (running) {
                 try {
                     Socket socket = serverSocket.accept();
                     // Handle incoming connections from other peers and the server
                     // Spawn a new thread to handle each connection
                     executor.submit(() -> handleConnection(socket));
-                } catch (SocketException e) {
+                } catch (SocketException | AsynchronousCloseException e) {
                     if (running) {
                         e.printStackTrace();
                     }
@@ -124,6 +389,17 @@ public class PeerNode {
 
     public void stop() {
         running = false;
+        checksumIndex.save();
+        loadPushExecutor.shutdownNow();
+        connectionPool.close();
+        // Persistent connections would otherwise keep their handlers waiting for the next request
+        for (Socket socket : acceptedSockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         executor.shutdown();
         try {
             executor.awaitTermination(10, TimeUnit.SECONDS);
@@ -138,73 +414,294 @@ public class PeerNode {
     }
 
 
-    private synchronized void handleConnection(Socket socket) {
-        try (ObjectInputStream inputStream = new ObjectInputStream(socket.getInputStream());
-             ObjectOutputStream outputStream = new ObjectOutputStream(socket.getOutputStream())) {
+    private ReadWriteLock getFileLock(String filename) {
+        return fileLocks.computeIfAbsent(filename, name -> new ReentrantReadWriteLock());
+    }
+
+    private ReentrantLock getDownloadLock(String filename) {
+        return downloadLocks.computeIfAbsent(filename, name -> new ReentrantLock());
+    }
+
+    private void handleConnection(Socket socket) {
+        // Connections are persistent: a peer sends any number of requests on one connection and may have
+        // several in flight. Each request is handled on the executor and its responses carry its request id,
+        // so a long download does not hold up load probes on the same connection. Shared state is protected
+        // by fileChecksums, loadIndex and the per-file locks rather than by locking the whole peer
+        acceptedSockets.add(socket);
+        // Accepted sockets have a channel; its own streams let responses go out while this thread waits to read
+        SocketChannel channel = socket.getChannel();
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(
+                channel != null ? ChannelStreams.newInputStream(channel) : socket.getInputStream()));
+             DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(
+                     channel != null ? ChannelStreams.newOutputStream(channel) : socket.getOutputStream()))) {
+
+            while (running) {
+                Protocol.Message request;
+                try {
+                    request = Protocol.readMessage(inputStream);
+                } catch (EOFException e) {
+                    break; // The other side closed the connection
+                }
+                if (request.opcode == Protocol.RECOVER_LIST_SUCCESS) {
+                    continue; // The tracking server acknowledged our RECOVER_SERVER_RESPONSE
+                }
+                executor.submit(() -> handleRequest(request, outputStream, socket));
+            }
+        } catch (IOException | RejectedExecutionException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        } finally {
+            acceptedSockets.remove(socket);
+            loadSubscribers.remove(socket);
+        }
+    }
 
-            String requestType = (String) inputStream.readObject();
-            if ("DOWNLOAD".equals(requestType)) {
+    private void handleRequest(Protocol.Message request, DataOutputStream outputStream, Socket socket) {
+        try {
+            if (request.opcode == Protocol.DOWNLOAD) {
                 // Handle DOWNLOAD request from other peers
-                loadIndex.incrementAndGet(); // Increment the load index
-                handleFileDownloadRequest(inputStream, outputStream, socket);
-                loadIndex.decrementAndGet(); // Decrement the load index
-            } else if ("GET_LOAD".equals(requestType)) {
+                handleFileDownloadRequest(request, outputStream, socket);
+            } else if (request.opcode == Protocol.GET_LOAD) {
                 // Handle GET_LOAD request from other peers
-                handleLoadRequest(outputStream);
-            } else if ("RECOVER_SERVER".equals(requestType)) {
+                handleLoadRequest(request.requestId, outputStream);
+            } else if (request.opcode == Protocol.PING) {
+                // Health check of a pooled connection
+                Protocol.writeMessage(outputStream, request.requestId, Protocol.PONG, payload -> payload.writeInt(getLoad()));
+            } else if (request.opcode == Protocol.SUBSCRIBE_LOAD) {
+                // Push load changes on this connection from now on, starting with the current load
+                loadSubscribers.put(socket, outputStream);
+                handleLoadRequest(request.requestId, outputStream);
+            } else if (request.opcode == Protocol.RECOVER_SERVER) {
                 // Send file list back to the server
-                handleRecoverServerRequest(outputStream, inputStream);
+                handleRecoverServerRequest(request.requestId, request.payload.readLong(), outputStream);
             } else {
                 // Unknown request type
-                System.out.println("Unknown request type: " + requestType);
+                System.out.println("Unknown request type: " + request.opcode);
+                Protocol.writeError(outputStream, request.requestId, "Unknown request type: " + request.opcode);
+            }
+        } catch (IOException e) {
+            if (running && !socket.isClosed()) {
+                e.printStackTrace();
             }
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
         }
     }
-    private void handleRecoverServerRequest(ObjectOutputStream outputStream, ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
-        // Send request
-        outputStream.writeObject("RECOVER_SERVER_RESPONSE");
-        outputStream.writeInt(port);
-        outputStream.writeObject(fileChecksums);
-        outputStream.flush();
+
+    private void handleRecoverServerRequest(int requestId, long trackerVersion, DataOutputStream outputStream) throws IOException {
+        // Send response; the acknowledgement arrives on the connection like a request.
+        // If the tracking server restored the version of our list we reported last, only the changes since are
+        // sent. The lock is only tried: an update in flight may be waiting for the recovering tracking server
+        if (trackerVersion >= 0 && fileListLock.tryLock()) {
+            try {
+                if (trackerVersion == reportedVersion) {
+                    Map<String, String> currentFiles = new HashMap<>(fileChecksums);
+                    Map<String, String> addedFiles = addedSinceReported(currentFiles);
+                    List<String> removedFiles = removedSinceReported(currentFiles);
+                    Protocol.writeMessage(outputStream, requestId, Protocol.RECOVER_SERVER_RESPONSE, payload -> {
+                        payload.writeInt(port);
+                        payload.writeByte(Protocol.RECOVER_DELTA);
+                        payload.writeLong(reportedVersion);
+                        Protocol.writeFileList(payload, addedFiles);
+                        Protocol.writeNameList(payload, removedFiles);
+                    });
+                    if (!addedFiles.isEmpty() || !removedFiles.isEmpty()) {
+                        reportedVersion++;
+                        reportedFiles = currentFiles;
+                    }
+                    return;
+                }
+            } finally {
+                fileListLock.unlock();
+            }
+        }
+        // The whole list carries no version, so the next updateFileList resyncs it
+        Protocol.writeMessage(outputStream, requestId, Protocol.RECOVER_SERVER_RESPONSE, payload -> {
+            payload.writeInt(port);
+            payload.writeByte(Protocol.RECOVER_FULL);
+            Protocol.writeFileList(payload, fileChecksums);
+        });
     }
 
-    private void handleLoadRequest(ObjectOutputStream outputStream) throws IOException {
+    private void pushLoad() {
+        int load = getLoad();
+        long now = System.nanoTime();
+        if (load == lastPushedLoad && now - lastLoadPushNanos < TimeUnit.MILLISECONDS.toNanos(LOAD_REFRESH_MILLIS)) {
+            return;
+        }
+        lastPushedLoad = load;
+        lastLoadPushNanos = now;
+        for (DataOutputStream outputStream : loadSubscribers.values()) {
+            // A write can wait behind a file chunk on the same connection, so each push runs on its own task
+            try {
+                executor.submit(() -> {
+                    try {
+                        Protocol.writeMessage(outputStream, Protocol.UNSOLICITED, Protocol.LOAD, payload -> payload.writeInt(load));
+                    } catch (IOException e) {
+                        // The connection is closing; its handler removes the subscription
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                return; // The peer is stopping
+            }
+        }
+    }
+
+    private void handleLoadRequest(int requestId, DataOutputStream outputStream) throws IOException {
         // Send the current load index to the requesting peer
-        outputStream.writeInt(getLoad());
+        Protocol.writeMessage(outputStream, requestId, Protocol.LOAD, payload -> payload.writeInt(getLoad()));
     }
-    private void handleFileDownloadRequest(ObjectInputStream inputStream, ObjectOutputStream outputStream, Socket socket) throws IOException {
+
+    private void handleFileDownloadRequest(Protocol.Message request, DataOutputStream outputStream, Socket socket) throws IOException {
+        String filename = request.payload.readUTF();
+        long offset = request.payload.readLong();
+        long length = request.payload.readLong();
+        // An empty range only asks for the file size, so it does not count as load
+        boolean transfer = length > 0;
+        if (transfer) {
+            loadIndex.incrementAndGet(); // Increment the load index
+        }
         try {
-            String filename = (String) inputStream.readObject();
-            sendFile(filename, socket);
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
+            sendFile(filename, offset, length, request.requestId, outputStream, socket);
+        } finally {
+            if (transfer) {
+                loadIndex.decrementAndGet(); // Decrement the load index
+            }
         }
     }
 
-    public void downloadFile(String filename, String peerIpAddress, int peerPort) {
-        try (Socket socket = new Socket(peerIpAddress, peerPort);
-             ObjectOutputStream outputStream = new ObjectOutputStream(socket.getOutputStream());
-             ObjectInputStream inputStream = new ObjectInputStream(socket.getInputStream())) {
-
+    public boolean downloadFile(String filename, String peerIpAddress, int peerPort) {
+        // Look up the original checksum before transferring so the file can be verified while it arrives
+        List<String> peerList = locateFile(filename);
+        if (peerList.isEmpty()) {
+            throw new RuntimeException(new FileNotFoundException("File not registered with the tracking server: " + filename));
+        }
+        String originalChecksum = peerList.get(0).split(":")[2];
+        boolean verified = downloadFile(filename, peerIpAddress, peerPort, originalChecksum);
+        if (verified) {
+            fileChecksums.put(filename, originalChecksum);
+        } else {
+            locationCache.remove(filename);
+        }
+        return verified;
+    }
 
-            // Send download request
-            outputStream.writeObject("DOWNLOAD");
-            outputStream.writeObject(filename);
+    private boolean downloadFile(String filename, String peerIpAddress, int peerPort, String originalChecksum) {
+        PartialDownload partialDownload = new PartialDownload(new File(fileDirectory, filename + PARTIAL_SUFFIX));
+        loadIndex.incrementAndGet(); // Increment the load index
+        // The file is received into its .part file, so uploads of the current copy go on until the commit
+        ReentrantLock downloadLock = getDownloadLock(filename);
+        downloadLock.lock();
+        try {
+            // Continue an interrupted download of the same checksum from its last durable byte
+            long offset = partialDownload.resumeOffset(originalChecksum);
+            if (offset > 0) {
+                System.out.println("Resuming download of " + filename + " at byte " + offset);
+            }
 
-            loadIndex.incrementAndGet(); // Increment the load index
-            // Receive file
-            receiveFile(filename, socket);
-            loadIndex.decrementAndGet(); // Decrement the load index
+            // Send download request for everything from the offset on. The file data gets a connection of its own,
+            // so it neither delays other requests to the peer nor piles up in memory faster than it is written
+            try (PeerConnection connection = connectionPool.openBulk(peerIpAddress, peerPort);
+                 PeerConnection.Exchange exchange = connection.send(Protocol.DOWNLOAD, payload -> {
+                payload.writeUTF(filename);
+                payload.writeLong(offset);
+                payload.writeLong(Long.MAX_VALUE);
+            })) {
+                long fileSize = exchange.next(Protocol.FILE_DATA, RESPONSE_TIMEOUT_MILLIS).payload.readLong();
+                if (fileSize < 0) {
+                    exchange.finish();
+                    System.out.println("File not found on peer " + peerIpAddress + ":" + peerPort + ": " + filename);
+                    return false;
+                }
+                fileSizes.put(originalChecksum, fileSize);
+                long transferStartTime = System.nanoTime();
+                boolean verified = receiveFile(filename, exchange, originalChecksum, partialDownload, offset, fileSize);
+                if (verified) {
+                    throughputEstimator.record(connection.getAddress(), fileSize - offset, System.nanoTime() - transferStartTime);
+                }
+                return verified;
+            }
 
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            downloadLock.unlock();
+            loadIndex.decrementAndGet(); // Decrement the load index
         }
+        return false;
+    }
+
+    // Downloads the file from the best of the peers that store it. The peers come from the location cache if it
+    // holds a fresh list; if none of those peers can serve the file, it is looked up again once
+    public String downloadFile(String filename, PeerSelectionStrategy strategy) {
+        List<String> peerList = locationCache.getFresh(filename, locationCacheTtlMillis);
+        if (peerList != null) {
+            String bestPeer = downloadFile(filename, peerList, strategy);
+            if (bestPeer != null) {
+                return bestPeer;
+            }
+            System.out.println("Cached peers of " + filename + " failed; asking the tracking server");
+        }
+        peerList = findFile(filename);
+        if (peerList.isEmpty()) {
+            System.out.println("File not registered with the tracking server: " + filename);
+            return null;
+        }
+        return downloadFile(filename, peerList, strategy);
     }
 
     public String downloadFile(String filename, List<String> peerList, double loadWeight) {
-        String bestPeer = selectBestPeer(peerList, loadWeight);
+        return downloadFile(filename, peerList, PeerSelectionStrategy.weighted(loadWeight));
+    }
+
+    public String downloadFile(String filename, List<String> peerList, PeerSelectionStrategy strategy) {
+        String bestPeer = downloadFromBestPeer(filename, peerList, strategy);
+        if (bestPeer != null) {
+            // Inform the tracking server
+            updateFileList();
+        }
+        return bestPeer;
+    }
+
+    // Downloads every listed file that this peer does not already hold with the same checksum, looking up all
+    // of them with one FIND_BATCH request and informing the tracking server once at the end.
+    // Returns the peer each file was downloaded from
+    public Map<String, String> downloadFiles(Collection<String> filenames, PeerSelectionStrategy strategy) {
+        return downloadAll(findFiles(filenames), strategy);
+    }
+
+    // Downloads every registered file whose name starts with the prefix, see downloadFiles
+    public Map<String, String> downloadFilesWithPrefix(String prefix, PeerSelectionStrategy strategy) {
+        return downloadAll(findFilesByPrefix(prefix), strategy);
+    }
+
+    private Map<String, String> downloadAll(Map<String, List<String>> locations, PeerSelectionStrategy strategy) {
+        Map<String, String> downloaded = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : locations.entrySet()) {
+            String filename = entry.getKey();
+            List<String> peerList = new ArrayList<>(entry.getValue());
+            if (peerList.isEmpty()) {
+                System.out.println("File not registered with the tracking server: " + filename);
+                continue;
+            }
+            if (peerList.get(0).split(":")[2].equals(fileChecksums.get(filename))) {
+                continue; // Already up to date
+            }
+            String bestPeer = downloadFromBestPeer(filename, peerList, strategy);
+            if (bestPeer != null) {
+                downloaded.put(filename, bestPeer);
+            }
+        }
+        if (!downloaded.isEmpty()) {
+            updateFileList();
+        }
+        System.out.println("Downloaded " + downloaded.size() + " of " + locations.size() + " files.");
+        return downloaded;
+    }
+
+    // Downloads from the best peer, falling back to the next best; returns the peer or null if all failed
+    private String downloadFromBestPeer(String filename, List<String> peerList, PeerSelectionStrategy strategy) {
+        long fileSize = strategy.usesFileSize() ? lookUpFileSize(filename, peerList) : -1;
+        String bestPeer = selectBestPeer(peerList, strategy, fileSize);
         int retryCount = 0;
         boolean successfulDownload = false;
 
@@ -212,26 +709,20 @@ public class PeerNode {
             String[] parts = bestPeer.split(":");
             String ipAddress = parts[0];
             int port = Integer.parseInt(parts[1]);
+            // The tracker returns ip:port:checksum, so the original checksum needs no extra lookup
+            String originalChecksum = parts[2];
 
-            downloadFile(filename, ipAddress, port);
-
-            String computedChecksum = null;
-            try {
-                computedChecksum = computeChecksum(new File(fileDirectory, filename).toPath());
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-            String originalChecksum = findFile(filename).get(0).split(":")[2];
-
-            if (!computedChecksum.equals(originalChecksum)) {
-                retryCount++;
-            } else {
+            if (downloadFile(filename, ipAddress, port, originalChecksum)) {
                 successfulDownload = true;
+            } else {
+                retryCount++;
             }
 
             if (!successfulDownload && retryCount == MAX_RETRIES) {
+                // The cached list may be stale; the next download looks the file up again
+                locationCache.remove(filename);
                 peerList.remove(bestPeer);
-                bestPeer = selectBestPeer(peerList, loadWeight);
+                bestPeer = selectBestPeer(peerList, strategy, fileSize);
                 retryCount = 0;
             }
         }
@@ -239,14 +730,8 @@ public class PeerNode {
             System.out.println("File download successful.");
             System.out.println("File downloaded from: " + bestPeer);
 
-            // Update the file list and inform the tracking server
-            try {
-                fileChecksums.put(filename, computeChecksum(new File(fileDirectory, filename).toPath()));
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-            updateFileList();
-
+            // Update the file list
+            fileChecksums.put(filename, bestPeer.split(":")[2]);
         } else {
             System.out.println("File download failed after trying all available peers.");
         }
@@ -254,190 +739,813 @@ public class PeerNode {
         return bestPeer;
     }
 
-    private void sendFile(String filename, Socket socket) throws IOException {
-        File file = new File(fileDirectory, filename);
-        if (file.exists()) {
-            byte[] buffer = new byte[BUFFER_SIZE];
-            try (InputStream fis = new FileInputStream(file);
-                 BufferedInputStream bis = new BufferedInputStream(fis);
-                 OutputStream os = socket.getOutputStream()) {
-
-                int bytesRead;
-                while ((bytesRead = bis.read(buffer)) > 0) {
-                    os.write(buffer, 0, bytesRead);
+    // Size of the file: known from an earlier transfer of the same checksum, or asked from one of its peers
+    private long lookUpFileSize(String filename, List<String> peerList) {
+        if (peerList.isEmpty()) {
+            return -1;
+        }
+        String checksum = peerList.get(0).split(":")[2];
+        Long knownSize = fileSizes.get(checksum);
+        if (knownSize != null) {
+            return knownSize;
+        }
+        long fileSize = requestFileSize(filename, peerList);
+        if (fileSize >= 0) {
+            fileSizes.put(checksum, fileSize);
+        }
+        return fileSize;
+    }
+
+    public boolean swarmDownload(String filename, List<String> peerList) {
+        // Split the file into CHUNK_SIZE chunks and pull them from every replica holder at once.
+        // Each source peer gets a worker that takes the next pending chunk when it finishes one,
+        // so fast peers serve more chunks and peers much slower than the best one are retired
+        List<String> sources = new ArrayList<>();
+        for (String peer : peerList) {
+            String[] parts = peer.split(":");
+            // Skip this peer if it is the current peer
+            if (parts[0].equals("127.0.0.1") && Integer.parseInt(parts[1]) == this.port) {
+                continue;
+            }
+            sources.add(peer);
+        }
+        if (sources.isEmpty()) {
+            System.out.println("No peers available to download " + filename);
+            return false;
+        }
+        String originalChecksum = sources.get(0).split(":")[2];
+        long fileSize = requestFileSize(filename, sources);
+        if (fileSize < 0) {
+            System.out.println("Unable to get the size of " + filename + " from any peer.");
+            return false;
+        }
+
+        PartialDownload partialDownload = new PartialDownload(new File(fileDirectory, filename + PARTIAL_SUFFIX));
+        File partialFile = partialDownload.getPartialFile();
+        ReentrantLock downloadLock = getDownloadLock(filename);
+        boolean successfulDownload = false;
+        loadIndex.incrementAndGet(); // Increment the load index
+        downloadLock.lock();
+        try {
+            // Chunks are written in any order, so leftovers of a sequential download cannot be reused
+            partialDownload.discard();
+            try (RandomAccessFile raf = new RandomAccessFile(partialFile, "rw")) {
+                // Preallocate the file so that chunks can be written at their final position in any order
+                raf.setLength(fileSize);
+                FileChannel fileChannel = raf.getChannel();
+                int chunkCount = (int) ((fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+                SwarmState state = new SwarmState(chunkCount, sources.size());
+                List<Future<?>> workers = new ArrayList<>();
+                for (String source : sources) {
+                    workers.add(executor.submit(() -> fetchChunks(filename, source, fileSize, fileChannel, state)));
+                }
+                for (Future<?> worker : workers) {
+                    worker.get();
+                }
+                if (!state.isComplete()) {
+                    System.out.println("Swarm download of " + filename + " failed: every source peer failed.");
+                } else {
+                    fileChannel.force(false);
+                    successfulDownload = true;
                 }
             }
-        } else {
-            throw new FileNotFoundException("File not found: " + filename);
+            if (successfulDownload) {
+                // Chunks arrive out of order, so the file is hashed once after the last chunk is written
+                String computedChecksum = computeChecksum(partialFile.toPath());
+                successfulDownload = computedChecksum.equals(originalChecksum);
+                if (successfulDownload) {
+                    commitFile(filename, partialFile, computedChecksum);
+                } else {
+                    System.out.println("File verification failed for " + filename);
+                }
+            }
+            if (!successfulDownload) {
+                Files.deleteIfExists(partialFile.toPath());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            partialFile.delete();
+            successfulDownload = false;
+        } finally {
+            downloadLock.unlock();
+            loadIndex.decrementAndGet(); // Decrement the load index
         }
+
+        if (successfulDownload) {
+            System.out.println("Swarm download of " + filename + " successful from " + sources.size() + " peers.");
+            // Update the file list and inform the tracking server
+            fileChecksums.put(filename, originalChecksum);
+            updateFileList();
+        }
+        return successfulDownload;
     }
 
-    private void receiveFile(String filename, Socket socket) throws IOException {
-        byte[] buffer = new byte[BUFFER_SIZE];
-        File file = new File(fileDirectory, filename);
-        OutputStream fos = null;
-        BufferedOutputStream bos = null;
+    // Progress shared by the workers of one swarm download. Workers wait on the state for a chunk to fetch; a
+    // worker retired for being slow waits until no other worker is active, then rejoins if chunks are missing
+    private static class SwarmState {
+        private final int chunkCount;
+        // Guarded by the state
+        private final Deque<Integer> pendingChunks = new ArrayDeque<>();
+        private int completedChunks;
+        private int activeWorkers;
+        // Best observed chunk throughput in bytes per millisecond
+        private final AtomicLong bestRate = new AtomicLong(0);
+
+        private SwarmState(int chunkCount, int workers) {
+            this.chunkCount = chunkCount;
+            this.activeWorkers = workers;
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                pendingChunks.add(chunk);
+            }
+        }
 
-        try (InputStream is = socket.getInputStream();
-             BufferedInputStream bis = new BufferedInputStream(is)) {
+        private synchronized boolean isComplete() {
+            return completedChunks == chunkCount;
+        }
 
-            int bytesRead;
-            while ((bytesRead = bis.read(buffer)) > 0) {
-                if (fos == null) {
-                    fos = new FileOutputStream(file);
-                    bos = new BufferedOutputStream(fos);
+        // Next chunk for an active worker, or null once every chunk is written. While the remaining chunks are in
+        // flight on other workers it waits, in case one of them fails and hands its chunk back
+        private synchronized Integer nextChunk() throws InterruptedException {
+            while (completedChunks < chunkCount) {
+                Integer chunk = pendingChunks.poll();
+                if (chunk != null) {
+                    return chunk;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    activeWorkers--;
+                    notifyAll();
+                    throw e;
                 }
-                bos.write(buffer, 0, bytesRead);
             }
-        } finally {
-            if (bos != null) {
-                bos.close();
+            return null;
+        }
+
+        private synchronized void completed() {
+            completedChunks++;
+            if (completedChunks == chunkCount) {
+                notifyAll();
             }
-            if (fos != null) {
-                fos.close();
+        }
+
+        // Hands the chunk back to the other workers and stops the failed one
+        private synchronized void failed(int chunk) {
+            pendingChunks.add(chunk);
+            activeWorkers--;
+            notifyAll();
+        }
+
+        private synchronized void leave() {
+            activeWorkers--;
+            notifyAll();
+        }
+
+        // Retires a slow worker unless it is the last active one
+        private synchronized boolean retire() {
+            if (activeWorkers <= 1) {
+                return false;
             }
+            activeWorkers--;
+            return true;
         }
 
-        // Verify the checksum of the received file
-        String computedChecksum = null;
+        // Waits while other workers are active; true if the retired worker is needed again
+        private synchronized boolean awaitRejoin() throws InterruptedException {
+            while (completedChunks < chunkCount && activeWorkers > 0) {
+                wait();
+            }
+            if (completedChunks == chunkCount) {
+                return false;
+            }
+            activeWorkers++;
+            return true;
+        }
+    }
+
+    private void fetchChunks(String filename, String source, long fileSize, FileChannel fileChannel, SwarmState state) {
+        String[] parts = source.split(":");
+        String ipAddress = parts[0];
+        int port = Integer.parseInt(parts[1]);
+        // The chunks from this peer come one after another over a connection of their own
+        PeerConnection connection;
         try {
-            computedChecksum = computeChecksum(file.toPath());
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            connection = connectionPool.openBulk(ipAddress, port);
+        } catch (IOException e) {
+            System.out.println("Unable to connect to " + source + ": " + e.getMessage());
+            state.leave();
+            return;
         }
-        System.out.println("Computed checksum: " + computedChecksum);
-        // Get the original checksum from the tracking server
+        try (connection) {
+            fetchChunks(filename, source, fileSize, fileChannel, state, connection);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        String originalChecksum  = findFile(filename).get(0).split(":")[2];
-        System.out.println("Original checksum: " + originalChecksum);
+    private void fetchChunks(String filename, String source, long fileSize, FileChannel fileChannel,
+                             SwarmState state, PeerConnection connection) throws InterruptedException {
+        int fetchedChunks = 0;
+        long fetchedBytes = 0;
+        long fetchNanos = 0;
+        Integer chunk;
+        while ((chunk = state.nextChunk()) != null) {
+            long offset = (long) chunk * CHUNK_SIZE;
+            long length = Math.min(CHUNK_SIZE, fileSize - offset);
+            long startTime = System.nanoTime();
+            try {
+                downloadRange(filename, connection, offset, length, fileSize, fileChannel);
+            } catch (IOException e) {
+                // Hand the chunk to the remaining peers and stop using this one
+                System.out.println("Chunk " + chunk + " from " + source + " failed: " + e.getMessage());
+                state.failed(chunk);
+                return;
+            }
+            state.completed();
+            fetchedChunks++;
+            fetchedBytes += length;
+            fetchNanos += System.nanoTime() - startTime;
+
+            // Average throughput of this peer so far; the first chunks are too noisy to judge a peer
+            long rate = fetchedBytes / Math.max(1, TimeUnit.NANOSECONDS.toMillis(fetchNanos));
+            long bestRate = state.bestRate.accumulateAndGet(rate, Math::max);
+            // Retire peers that are much slower than the best one, as long as another worker remains. A retired
+            // peer still holds chunks, so it rejoins if every faster peer fails
+            if (fetchedChunks >= MIN_CHUNKS_BEFORE_REBALANCE && rate * SLOW_PEER_RATIO < bestRate && state.retire()) {
+                System.out.println("Rebalancing chunks of " + filename + " away from slow peer " + source);
+                if (!state.awaitRejoin()) {
+                    return;
+                }
+                System.out.println("Slow peer " + source + " rejoins the download of " + filename);
+            }
+        }
+    }
 
-        // If the checksums don't match, retry the verification up to MAX_RETRIES times
-        if (!computedChecksum.equals(originalChecksum)) {
-            int retryCount = 0;
-            boolean successfulVerification = false;
+    private void downloadRange(String filename, PeerConnection connection, long offset, long length,
+                               long fileSize, FileChannel fileChannel) throws IOException {
+        // A hung peer must not hold a chunk forever
+        try (PeerConnection.Exchange exchange = connection.send(Protocol.DOWNLOAD, payload -> {
+            payload.writeUTF(filename);
+            payload.writeLong(offset);
+            payload.writeLong(length);
+        })) {
+            long requestTime = System.nanoTime();
+            long remoteSize = exchange.next(Protocol.FILE_DATA, RESPONSE_TIMEOUT_MILLIS).payload.readLong();
+            if (remoteSize != fileSize) {
+                exchange.finish();
+                throw new IOException("Peer has a different size for " + filename + ": " + remoteSize);
+            }
+            // Write the chunk at its position in the preallocated file
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                byte[] data = exchange.next(Protocol.FILE_CHUNK, RESPONSE_TIMEOUT_MILLIS).body;
+                if (data.length > end - position) {
+                    throw new IOException("Peer sent more than the requested range of " + filename);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    position += fileChannel.write(buffer, position);
+                }
+            }
+            exchange.finish();
+            throughputEstimator.record(connection.getAddress(), length, System.nanoTime() - requestTime);
+        }
+    }
 
-            while (retryCount < MAX_RETRIES && !successfulVerification) {
-                try {
-                    computedChecksum = computeChecksum(file.toPath());
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
+    private long requestFileSize(String filename, List<String> sources) {
+        // An empty range request returns only the file size. Every source is asked at once and the first size
+        // wins, so a dead source costs at most PROBE_TIMEOUT_MILLIS instead of delaying the others
+        CompletionService<Long> probes = new ExecutorCompletionService<>(executor);
+        int pending = 0;
+        for (String source : sources) {
+            String[] parts = source.split(":");
+            try {
+                probes.submit(() -> {
+                    PeerConnection connection = connectionPool.acquire(parts[0], Integer.parseInt(parts[1]));
+                    return connection.request(Protocol.DOWNLOAD, payload -> {
+                        payload.writeUTF(filename);
+                        payload.writeLong(0);
+                        payload.writeLong(0);
+                    }, Protocol.FILE_DATA, PROBE_TIMEOUT_MILLIS).payload.readLong();
+                });
+                pending++;
+            } catch (RejectedExecutionException e) {
+                break; // The peer is stopping
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROBE_TIMEOUT_MILLIS);
+        for (; pending > 0; pending--) {
+            try {
+                Future<Long> probe = probes.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (probe == null) {
+                    break; // The remaining sources did not answer in time
                 }
-                successfulVerification = computedChecksum.equals(originalChecksum);
-                retryCount++;
+                long size = probe.get();
+                if (size >= 0) {
+                    return size;
+                }
+            } catch (ExecutionException e) {
+                System.out.println("Unable to get the size of " + filename + ": " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return -1;
+    }
+
+    private void sendFile(String filename, long offset, long length, int requestId, DataOutputStream outputStream, Socket socket) throws IOException {
+        File file = new File(fileDirectory, filename);
+        ReadWriteLock fileLock = getFileLock(filename);
+        fileLock.readLock().lock();
+        try {
+            // The FILE_DATA frame carries the total file size (-1 if missing) and this peer's load; FILE_CHUNK frames with the requested bytes follow it
+            if (!file.exists()) {
+                System.out.println("File not found: " + filename);
+                Protocol.writeMessage(outputStream, requestId, Protocol.FILE_DATA, payload -> {
+                    payload.writeLong(-1);
+                    payload.writeInt(getLoad());
+                });
+                return;
             }
+            long size = file.length();
+            Protocol.writeMessage(outputStream, requestId, Protocol.FILE_DATA, payload -> {
+                payload.writeLong(size);
+                payload.writeInt(getLoad());
+            });
+            long start = Math.min(Math.max(offset, 0), size);
+            transferFile(file, start, Math.min(length, size - start), requestId, outputStream, socket);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
 
-            if (!successfulVerification) {
-                System.out.println("File verification failed after " + retryCount + " retries.");
+    private void transferFile(File file, long offset, long count, int requestId, DataOutputStream outputStream, Socket socket) throws IOException {
+        SocketChannel socketChannel = socket.getChannel();
+        boolean zeroCopy = zeroCopyEnabled && socketChannel != null;
+        byte[] buffer = zeroCopy ? null : new byte[Protocol.MAX_CHUNK_SIZE];
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long position = offset;
+            long end = offset + count;
+            while (position < end) {
+                int chunkLength = (int) Math.min(Protocol.MAX_CHUNK_SIZE, end - position);
+                // Each chunk is one frame written under the stream's lock, so responses to other requests
+                // on this connection can go out between chunks
+                synchronized (outputStream) {
+                    Protocol.writeHeader(outputStream, requestId, Protocol.FILE_CHUNK, chunkLength);
+                    if (zeroCopy) {
+                        // Zero-copy path: the kernel moves the file pages straight into the socket
+                        outputStream.flush();
+                        long sent = 0;
+                        while (sent < chunkLength) {
+                            long transferred = fileChannel.transferTo(position + sent, chunkLength - sent, socketChannel);
+                            // transferTo moves nothing past the end of the file instead of failing
+                            if (transferred == 0 && position + sent >= fileChannel.size()) {
+                                throw new EOFException("File shrank while sending: " + file.getName());
+                            }
+                            sent += transferred;
+                        }
+                    } else {
+                        // Fallback for sockets without a channel: copy through a user-space buffer
+                        ByteBuffer data = ByteBuffer.wrap(buffer, 0, chunkLength);
+                        while (data.hasRemaining()) {
+                            if (fileChannel.read(data, position + data.position()) < 0) {
+                                throw new EOFException("File shrank while sending: " + file.getName());
+                            }
+                        }
+                        outputStream.write(buffer, 0, chunkLength);
+                    }
+                }
+                position += chunkLength;
             }
         }
+        outputStream.flush();
+    }
+
+    private boolean receiveFile(String filename, PeerConnection.Exchange exchange, String originalChecksum, PartialDownload partialDownload,
+                                long offset, long fileSize) throws IOException {
+        File partialFile = partialDownload.getPartialFile();
+        MessageDigest digest = newDigest();
+        // Rebuild the digest over the bytes kept from an earlier attempt
+        updateDigest(digest, partialFile.toPath(), offset);
+        long bytesReceived = offset;
+        long lastCheckpoint = offset;
+
+        // Hash the bytes as they arrive so that verification needs no extra disk reads
+        try (FileChannel fileChannel = FileChannel.open(partialFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Drop anything written after the last checkpoint
+            fileChannel.truncate(offset);
+            fileChannel.position(offset);
+            try {
+                while (bytesReceived < fileSize) {
+                    byte[] chunk = exchange.next(Protocol.FILE_CHUNK, RESPONSE_TIMEOUT_MILLIS).body;
+                    if (chunk.length > fileSize - bytesReceived) {
+                        throw new IOException("Peer sent more than " + fileSize + " bytes of " + filename);
+                    }
+                    digest.update(chunk);
+                    ByteBuffer data = ByteBuffer.wrap(chunk);
+                    while (data.hasRemaining()) {
+                        fileChannel.write(data);
+                    }
+                    bytesReceived += chunk.length;
+                    if (bytesReceived - lastCheckpoint >= CHECKPOINT_BYTES) {
+                        fileChannel.force(false);
+                        partialDownload.checkpoint(originalChecksum, bytesReceived);
+                        lastCheckpoint = bytesReceived;
+                    }
+                }
+                exchange.finish();
+            } catch (IOException e) {
+                // Keep the received bytes so that the next attempt, against any peer, resumes from here
+                fileChannel.force(false);
+                partialDownload.checkpoint(originalChecksum, bytesReceived);
+                throw e;
+            }
+        }
+
+        String computedChecksum = bytesToHex(digest.digest());
+        System.out.println("Computed checksum: " + computedChecksum);
+        System.out.println("Original checksum: " + originalChecksum);
+
+        if (!computedChecksum.equals(originalChecksum)) {
+            partialDownload.discard();
+            System.out.println("File verification failed for " + filename);
+            return false;
+        }
+        commitFile(filename, partialFile, computedChecksum);
+        partialDownload.complete();
+        return true;
+    }
+
+    private void commitFile(String filename, File partialFile, String checksum) throws IOException {
+        // Only a verified file replaces the target, and only once no upload is reading it
+        File file = new File(fileDirectory, filename);
+        ReadWriteLock fileLock = getFileLock(filename);
+        fileLock.writeLock().lock();
+        try {
+            Files.move(partialFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        checksumIndex.putChecksum(filename, attributes.size(), attributes.lastModifiedTime().toMillis(), checksum);
     }
 
     public List<String> findFile(String filename) {
         // Sends a request to the tracking server to get a list of nodes that store the specified file
         try (Socket socket = new Socket(trackingServer.ipAddress, trackingServer.port);
-             ObjectOutputStream outputStream = new ObjectOutputStream(socket.getOutputStream());
-             ObjectInputStream inputStream = new ObjectInputStream(socket.getInputStream())) {
+             DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
 
             // Send request
-            outputStream.writeObject("FIND");
-            outputStream.writeObject(filename);
+            Protocol.writeMessage(outputStream, Protocol.FIND, payload -> payload.writeUTF(filename));
 
             // Receive response
-            @SuppressWarnings("unchecked")
-            List<String> peerList = (List<String>) inputStream.readObject();
+            trackerLookups.incrementAndGet();
+            List<String> peerList = learnCoordinates(Protocol.readPeerList(Protocol.readMessage(inputStream, Protocol.FIND_RESULT).payload));
+            locationCache.put(filename, peerList);
             return peerList;
 
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             System.out.println("Error: Unable to find file. Please try again.");
             e.printStackTrace();
         }
         return new ArrayList<>();
     }
+
+    // The file's peer list from the location cache if it is fresh, otherwise from the tracking server
+    public List<String> locateFile(String filename) {
+        List<String> peerList = locationCache.getFresh(filename, locationCacheTtlMillis);
+        return peerList != null ? peerList : findFile(filename);
+    }
+
+    // Looks up several files with one FIND_BATCH request; maps each filename to its peer list
+    public Map<String, List<String>> findFiles(Collection<String> filenames) {
+        return findBatch(payload -> {
+            payload.writeByte(Protocol.BATCH_BY_NAME);
+            payload.writeInt(filenames.size());
+            for (String filename : filenames) {
+                payload.writeUTF(filename);
+            }
+        });
+    }
+
+    // Looks up every registered file whose name starts with the prefix
+    public Map<String, List<String>> findFilesByPrefix(String prefix) {
+        return findBatch(payload -> {
+            payload.writeByte(Protocol.BATCH_BY_PREFIX);
+            payload.writeUTF(prefix);
+        });
+    }
+
+    private Map<String, List<String>> findBatch(Protocol.PayloadWriter request) {
+        try (Socket socket = new Socket(trackingServer.ipAddress, trackingServer.port);
+             DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+
+            Protocol.writeMessage(outputStream, Protocol.FIND_BATCH, request);
+            trackerLookups.incrementAndGet();
+            Map<String, List<String>> locations = new LinkedHashMap<>();
+            for (Map.Entry<String, List<Protocol.PeerEntry>> entry : Protocol.readFileLocations(
+                    Protocol.readMessage(inputStream, Protocol.FIND_BATCH_RESULT).payload).entrySet()) {
+                List<String> peerList = learnCoordinates(entry.getValue());
+                locationCache.put(entry.getKey(), peerList);
+                locations.put(entry.getKey(), peerList);
+            }
+            return locations;
+
+        } catch (IOException e) {
+            System.out.println("Error: Unable to find files. Please try again.");
+            e.printStackTrace();
+        }
+        return new LinkedHashMap<>();
+    }
+
+    // Remembers the network coordinates that entries of a peer list carry; returns the ip:port:checksum entries
+    private List<String> learnCoordinates(List<Protocol.PeerEntry> entries) {
+        List<String> peerList = new ArrayList<>();
+        for (Protocol.PeerEntry entry : entries) {
+            if (entry.getCoordinate() != null) {
+                coordinateEstimator.learn(peerAddress(entry.getIpAddress(), entry.getPort()), entry.getCoordinate());
+            }
+            peerList.add(entry.toString());
+        }
+        return peerList;
+    }
+
     public int getLoad() {
         // Get the current load (number of concurrent downloads or uploads) of the peer
         return loadIndex.get();
     }
-    private synchronized void updateLoadIndex(int delta) {
+    private void updateLoadIndex(int delta) {
         loadIndex.addAndGet(delta);
     }
 
 
     public void updateFileList() {
-        // Updates the list of files stored in the specific directory and sends the updated list to the tracking server
-        try (Socket socket = new Socket(trackingServer.ipAddress, trackingServer.port);
-             ObjectOutputStream outputStream = new ObjectOutputStream(socket.getOutputStream());
-             ObjectInputStream inputStream = new ObjectInputStream(socket.getInputStream())) {
+        // Sends the tracking server the files added and removed since the version of our list it acknowledged
+        // last, or the whole list if it holds none or a different version. Updates are serialized so that each
+        // delta is based on the version the previous one produced
+        fileListLock.lock();
+        try {
+            Map<String, String> currentFiles = new HashMap<>(fileChecksums);
+            try (Socket socket = new Socket(trackingServer.ipAddress, trackingServer.port);
+                 DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                 DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
 
-            // Send request
-            outputStream.writeObject("UPDATE_LIST");
-            outputStream.writeInt(port);
-            outputStream.writeObject(fileChecksums);
-            outputStream.flush();
+                if (reportedVersion < 0 || !sendFileListDelta(currentFiles, outputStream, inputStream)) {
+                    sendFileList(currentFiles, outputStream, inputStream);
+                }
+                // The tracking server holds coordinates only for registered peers, so ours follows the list
+                sendCoordinate(outputStream, inputStream);
 
-            // Read response
-            String response = (String) inputStream.readObject();
-            System.out.println("Server response: " + response);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            fileListLock.unlock();
+        }
+    }
 
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+    private Map<String, String> addedSinceReported(Map<String, String> currentFiles) {
+        Map<String, String> addedFiles = new HashMap<>();
+        for (Map.Entry<String, String> entry : currentFiles.entrySet()) {
+            if (!entry.getValue().equals(reportedFiles.get(entry.getKey()))) {
+                addedFiles.put(entry.getKey(), entry.getValue());
+            }
         }
+        return addedFiles;
     }
 
+    private List<String> removedSinceReported(Map<String, String> currentFiles) {
+        List<String> removedFiles = new ArrayList<>();
+        for (String filename : reportedFiles.keySet()) {
+            if (!currentFiles.containsKey(filename)) {
+                removedFiles.add(filename);
+            }
+        }
+        return removedFiles;
+    }
 
-    private int getRemotePeerLoad(String ipAddress, int port) {
-        int load = -1;
-        try (Socket socket = new Socket(ipAddress, port);
-             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-             ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
+    // Returns false if the tracking server asks for the whole list instead
+    private boolean sendFileListDelta(Map<String, String> currentFiles, DataOutputStream outputStream,
+                                      DataInputStream inputStream) throws IOException {
+        Map<String, String> addedFiles = addedSinceReported(currentFiles);
+        List<String> removedFiles = removedSinceReported(currentFiles);
+
+        // Send request
+        Protocol.writeMessage(outputStream, Protocol.UPDATE_LIST_DELTA, payload -> {
+            payload.writeInt(port);
+            payload.writeLong(reportedVersion);
+            Protocol.writeFileList(payload, addedFiles);
+            Protocol.writeNameList(payload, removedFiles);
+        });
+
+        // Read response
+        Protocol.Message response = Protocol.readMessage(inputStream);
+        if (response.opcode == Protocol.RESYNC_REQUIRED) {
+            System.out.println("Server response: RESYNC_REQUIRED");
+            return false;
+        }
+        Protocol.checkOpcode(response, Protocol.UPDATE_LIST_SUCCESS);
+        int registeredPort = response.payload.readInt();
+        reportedVersion = response.payload.readLong();
+        reportedFiles = currentFiles;
+        System.out.println("Server response: UPDATE_LIST_SUCCESS:" + registeredPort + " (version " + reportedVersion
+                + ", " + addedFiles.size() + " added, " + removedFiles.size() + " removed)");
+        return true;
+    }
+
+    private void sendFileList(Map<String, String> currentFiles, DataOutputStream outputStream,
+                              DataInputStream inputStream) throws IOException {
+        long version = reportedVersion + 1;
+        fullFileListUpdates.incrementAndGet();
+
+        // Send request
+        Protocol.writeMessage(outputStream, Protocol.UPDATE_LIST, payload -> {
+            payload.writeInt(port);
+            payload.writeLong(version);
+            Protocol.writeFileList(payload, currentFiles);
+        });
+
+        // Read response
+        Protocol.Message response = Protocol.readMessage(inputStream, Protocol.UPDATE_LIST_SUCCESS);
+        int registeredPort = response.payload.readInt();
+        reportedVersion = response.payload.readLong();
+        reportedFiles = currentFiles;
+        System.out.println("Server response: UPDATE_LIST_SUCCESS:" + registeredPort + " (version " + reportedVersion
+                + ", " + currentFiles.size() + " files)");
+    }
 
-            // Send request for load index
-            out.writeObject("GET_LOAD");
-            out.flush();
+    // Runs every COORDINATE_REPORT_INTERVAL_MILLIS: reports our coordinate if it moved since the last report, or
+    // if the tracking server may have lost it by restarting
+    private void reportCoordinate() {
+        if (coordinateEstimator.getLocal().equals(reportedCoordinate)
+                && System.nanoTime() - coordinateReportNanos < TimeUnit.MILLISECONDS.toNanos(COORDINATE_REFRESH_MILLIS)) {
+            return;
+        }
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(trackingServer.ipAddress, trackingServer.port), PROBE_TIMEOUT_MILLIS);
+            socket.setSoTimeout(PROBE_TIMEOUT_MILLIS);
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            sendCoordinate(outputStream, inputStream);
+        } catch (IOException e) {
+            System.out.println("Unable to report the network coordinate: " + e.getMessage());
+        }
+    }
+
+    private void sendCoordinate(DataOutputStream outputStream, DataInputStream inputStream) throws IOException {
+        NetworkCoordinate coordinate = coordinateEstimator.getLocal();
+        Protocol.writeMessage(outputStream, Protocol.UPDATE_COORDINATE, payload -> {
+            payload.writeInt(port);
+            coordinate.write(payload);
+        });
+        // A peer the tracking server does not know yet reports again later
+        if (Protocol.readMessage(inputStream, Protocol.UPDATE_COORDINATE_SUCCESS).payload.readBoolean()) {
+            reportedCoordinate = coordinate;
+            coordinateReportNanos = System.nanoTime();
+        }
+    }
+
+    // Version of our file list last acknowledged by the tracking server, -1 before the first update
+    public long getFileListVersion() {
+        fileListLock.lock();
+        try {
+            return reportedVersion;
+        } finally {
+            fileListLock.unlock();
+        }
+    }
+
+    // Number of updates that sent the whole file list rather than a delta
+    public long getFullFileListUpdateCount() {
+        return fullFileListUpdates.get();
+    }
 
-            // Read load index value from the remote peer
-            load = in.readInt();
+
+    private static String peerAddress(String ipAddress, int port) {
+        try {
+            return ConnectionPool.addressOf(ipAddress, port);
+        } catch (UnknownHostException e) {
+            return ipAddress + ":" + port;
+        }
+    }
+
+    private int getRemotePeerLoad(String ipAddress, int port) {
+        int load = -1;
+        try {
+            // Probes reuse the pooled connection to the peer instead of opening a socket per candidate
+            // and the connection records the answer in the load cache
+            loadProbes.incrementAndGet();
+            PeerConnection connection = connectionPool.acquire(ipAddress, port);
+            load = connection.request(Protocol.GET_LOAD, null, Protocol.LOAD, PROBE_TIMEOUT_MILLIS).payload.readInt();
         } catch (IOException e) {
-            e.printStackTrace();
+            System.out.println("Unable to get the load of peer " + ipAddress + ":" + port + ": " + e.getMessage());
+            // A failed peer is not scored from its old load
+            loadCache.remove(peerAddress(ipAddress, port));
         }
         return load;
     }
 
     public String selectBestPeer(List<String> peerList, double loadWeight) {
-        String bestPeer = null;
-        double bestScore = Double.MAX_VALUE;
-        int failedConnections = 0;
+        return selectBestPeer(peerList, PeerSelectionStrategy.weighted(loadWeight));
+    }
+
+    public String selectBestPeer(List<String> peerList, PeerSelectionStrategy strategy) {
+        return selectBestPeer(peerList, strategy, -1);
+    }
 
+    // Selects the peer to download a file of fileSize bytes (-1 if unknown) from
+    public String selectBestPeer(List<String> peerList, PeerSelectionStrategy strategy, long fileSize) {
+        // Only the candidates sampled by the strategy are considered, and their loads are needed only if the
+        // strategy scores by load. Peers that reported their load within loadCacheTtlMillis are scored from the load cache. The others
+        // are probed at once and selection waits at most probeDeadlineMillis in total, so it costs one round
+        // trip instead of one per peer and a hung peer cannot stall it. Peers that have not answered by the
+        // deadline are scored from their last known load; their probes finish in the background and refresh it.
+        // If every sampled peer failed, the strategy samples again from the candidates not tried yet, each round
+        // with a deadline of its own, so a download fails only when no candidate is left
+        long startTime = System.nanoTime();
+        List<String> untried = new ArrayList<>();
         for (String peer : peerList) {
             String[] parts = peer.split(":");
-            String ipAddress = parts[0];
-            int port = Integer.parseInt(parts[1]);
             // Skip this peer if it is the current peer
-            if (ipAddress.equals("127.0.0.1") && port == this.port) {
-                continue;
+            if (!(parts[0].equals("127.0.0.1") && Integer.parseInt(parts[1]) == this.port)) {
+                untried.add(peer);
             }
-            // Get the load of the remote peer
-            System.out.println("Getting load from peer " + ipAddress + ":" + port);
-            int load = getRemotePeerLoad(ipAddress, port); // Retrieve the load from the remote peer
-            if (load == -1) {
-                failedConnections++;
-                continue; // Skip this peer
+        }
+        String bestPeer = null;
+        double bestScore = Double.MAX_VALUE;
+        int probedPeers = 0;
+        int lateProbes = 0;
+        while (bestPeer == null && !untried.isEmpty()) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(probeDeadlineMillis);
+            List<String> sampled = new ArrayList<>(strategy.sample(untried));
+            untried.removeAll(sampled);
+            probedPeers += sampled.size();
+            Map<String, Future<Integer>> probes = new LinkedHashMap<>();
+            for (String peer : sampled) {
+                String[] parts = peer.split(":");
+                String ipAddress = parts[0];
+                int port = Integer.parseInt(parts[1]);
+                if (!strategy.usesLoad()) {
+                    probes.put(peer, CompletableFuture.completedFuture(0));
+                    continue;
+                }
+                Integer cachedLoad = loadCache.getFresh(peerAddress(ipAddress, port), loadCacheTtlMillis);
+                if (cachedLoad != null) {
+                    probes.put(peer, CompletableFuture.completedFuture(cachedLoad));
+                    continue;
+                }
+                // Get the load of the remote peer
+                System.out.println("Getting load from peer " + ipAddress + ":" + port);
+                probes.put(peer, executor.submit(() -> getRemotePeerLoad(ipAddress, port)));
             }
-            int latency = latencyTable.getLatency(this.port, port);
-            // print out the latency
-            System.out.println("Latency: " + latency + "ms");
-            double score = (1 - loadWeight) * latency + loadWeight * load;
 
-            if (score < bestScore) {
-                bestScore = score;
-                bestPeer = peer;
+            for (Map.Entry<String, Future<Integer>> probe : probes.entrySet()) {
+                String[] parts = probe.getKey().split(":");
+                int port = Integer.parseInt(parts[1]);
+                int load;
+                try {
+                    load = probe.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    lateProbes++;
+                    load = loadCache.getLastKnown(peerAddress(parts[0], port));
+                } catch (ExecutionException e) {
+                    load = -1;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    untried.clear();
+                    break;
+                }
+                if (load == -1) {
+                    continue; // Skip this peer
+                }
+                // The measured round-trip time, or the static latency for a peer never measured
+                String address = peerAddress(parts[0], port);
+                int latency = rttEstimator.estimate(address, port);
+                // print out the latency
+                System.out.println("Latency: " + latency + "ms");
+                double score = strategy.score(latency, load, throughputEstimator.get(address), fileSize);
+
+                if (score < bestScore) {
+                    bestScore = score;
+                    bestPeer = probe.getKey();
+                }
             }
         }
 
-        if (failedConnections == peerList.size()) {
+        long selectionNanos = System.nanoTime() - startTime;
+        lastPeerSelectionNanos = selectionNanos;
+        peerSelectionNanos.addAndGet(selectionNanos);
+        peerSelections.incrementAndGet();
+        System.out.println("Peer selection took " + TimeUnit.NANOSECONDS.toMicros(selectionNanos) + " us for "
+                + probedPeers + " peers, " + lateProbes + " answered late");
+
+        if (bestPeer == null) {
             System.out.println("All peers are offline.");
-            return null;
         }
-
         return bestPeer;
     }
 
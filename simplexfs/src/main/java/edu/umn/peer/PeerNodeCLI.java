@@ -39,7 +39,9 @@ public class PeerNodeCLI {
         System.out.println("Welcome to the simple xFS peer node CLI.");
         System.out.println("Operations: ");
         System.out.println("  list: list files in this peer");
-        System.out.println("  download <filename>: download a file");
+        System.out.println("  download <filename> [weighted|latency|least-loaded|power-of-two|completion-time]: download a file, choosing the peer by the given strategy");
+        System.out.println("  swarm <filename>: download a file in chunks from all peers that store it");
+        System.out.println("  sync <prefix>: download every file whose name starts with the prefix");
         System.out.println("  exit: exit the program");
         while (true) {
 
@@ -54,9 +56,31 @@ public class PeerNodeCLI {
                 if (parts.length < 2) {
                     System.out.println("You must specify a filename to download.");
                 } else {
-                    List<String> peerList = peerNode.findFile(parts[1]);
                     double loadWeight = 0.5;  // replace this with the actual loadWeight
-                    peerNode.downloadFile(parts[1], peerList, loadWeight);
+                    // The strategy is an optional last word, so filenames may contain spaces
+                    String filename = parts[1];
+                    String strategy = "weighted";
+                    int lastSpace = filename.lastIndexOf(' ');
+                    if (lastSpace > 0 && PeerSelectionStrategy.NAMES.contains(filename.substring(lastSpace + 1))) {
+                        strategy = filename.substring(lastSpace + 1);
+                        filename = filename.substring(0, lastSpace);
+                    }
+                    peerNode.downloadFile(filename, PeerSelectionStrategy.forName(strategy, loadWeight));
+                }
+            } else if (command.startsWith("swarm ")) {
+                String[] parts = command.split(" ", 2);
+                if (parts.length < 2) {
+                    System.out.println("You must specify a filename to download.");
+                } else {
+                    List<String> peerList = peerNode.findFile(parts[1]);
+                    peerNode.swarmDownload(parts[1], peerList);
+                }
+            } else if (command.startsWith("sync ")) {
+                String[] parts = command.split(" ", 2);
+                if (parts.length < 2) {
+                    System.out.println("You must specify a filename prefix to sync.");
+                } else {
+                    peerNode.downloadFilesWithPrefix(parts[1], PeerSelectionStrategy.weighted(0.5));
                 }
             } else if (command.equalsIgnoreCase("list")) {
                 List<String> files = peerNode.listFiles();
@@ -68,7 +92,9 @@ public class PeerNodeCLI {
                 System.out.println("Unknown command: " + command);
                 System.out.println("Operations: ");
                 System.out.println("  list: list files in this peer");
-                System.out.println("  download <filename>: download a file");
+                System.out.println("  download <filename> [weighted|latency|least-loaded|power-of-two|completion-time]: download a file, choosing the peer by the given strategy");
+                System.out.println("  swarm <filename>: download a file in chunks from all peers that store it");
+                System.out.println("  sync <prefix>: download every file whose name starts with the prefix");
                 System.out.println("  exit: exit the program");
             }
         }
@@ -0,0 +1,145 @@
+package edu.umn.peer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Decides which replica holder a download uses. selectBestPeer asks the strategy which candidates to consider,
+// gets the load of those (from the load cache or a probe) if the strategy uses it, and picks the candidate
+// with the lowest score.
+public interface PeerSelectionStrategy {
+    // Names accepted by forName
+    List<String> NAMES = List.of("weighted", "latency", "least-loaded", "power-of-two", "completion-time");
+
+    // Candidates to consider, in ip:port:checksum form; all of them by default
+    default List<String> sample(List<String> candidates) {
+        return candidates;
+    }
+
+    // Whether score needs the candidates' loads; if not, no peer is probed
+    default boolean usesLoad() {
+        return true;
+    }
+
+    // Whether score needs the size of the file; if so it is looked up before selection
+    default boolean usesFileSize() {
+        return false;
+    }
+
+    // Score of a candidate from its latency in ms and its load index (0 if usesLoad is false); lowest wins
+    double score(int latency, int load);
+
+    // Score of a candidate for a download of fileSize bytes (-1 if unknown), given the bytes per second earlier
+    // downloads from it achieved (-1 if never measured); by default only latency and load count
+    default double score(int latency, int load, double bytesPerSecond, long fileSize) {
+        return score(latency, load);
+    }
+
+    // The original policy: (1 - loadWeight) * latency + loadWeight * load
+    static PeerSelectionStrategy weighted(double loadWeight) {
+        return (latency, load) -> (1 - loadWeight) * latency + loadWeight * load;
+    }
+
+    // The closest peer, without probing anyone
+    static PeerSelectionStrategy latencyOnly() {
+        return new PeerSelectionStrategy() {
+            @Override
+            public boolean usesLoad() {
+                return false;
+            }
+
+            @Override
+            public double score(int latency, int load) {
+                return latency;
+            }
+        };
+    }
+
+    // The least loaded peer, ties broken by latency. Each unit of load outweighs any latency, including the
+    // Integer.MAX_VALUE of a peer whose latency is unknown
+    static PeerSelectionStrategy leastLoaded() {
+        return (latency, load) -> load * 1e10 + latency;
+    }
+
+    // Expected completion time in ms: latency + size / bandwidth, where the peer's bandwidth is shared by the
+    // transfers it already serves and this one. Peers never measured are assumed to reach assumedBytesPerSecond;
+    // without a file size only latency and load count
+    static PeerSelectionStrategy expectedCompletionTime(double assumedBytesPerSecond) {
+        return new PeerSelectionStrategy() {
+            @Override
+            public boolean usesFileSize() {
+                return true;
+            }
+
+            @Override
+            public double score(int latency, int load) {
+                return latency * (1.0 + load);
+            }
+
+            @Override
+            public double score(int latency, int load, double bytesPerSecond, long fileSize) {
+                if (fileSize < 0) {
+                    return score(latency, load);
+                }
+                double bandwidth = bytesPerSecond > 0 ? bytesPerSecond : assumedBytesPerSecond;
+                return latency + fileSize * 1000.0 / bandwidth * (1 + load);
+            }
+        };
+    }
+
+    // Power of d choices: only d random candidates are considered, so a download probes at most d peers
+    // however many replicas there are, and the choice is scored by the given strategy
+    static PeerSelectionStrategy powerOfChoices(int choices, PeerSelectionStrategy scoring) {
+        return new PeerSelectionStrategy() {
+            @Override
+            public List<String> sample(List<String> candidates) {
+                if (candidates.size() <= choices) {
+                    return candidates;
+                }
+                List<String> shuffled = new ArrayList<>(candidates);
+                Collections.shuffle(shuffled, ThreadLocalRandom.current());
+                return shuffled.subList(0, choices);
+            }
+
+            @Override
+            public boolean usesLoad() {
+                return scoring.usesLoad();
+            }
+
+            @Override
+            public boolean usesFileSize() {
+                return scoring.usesFileSize();
+            }
+
+            @Override
+            public double score(int latency, int load) {
+                return scoring.score(latency, load);
+            }
+
+            @Override
+            public double score(int latency, int load, double bytesPerSecond, long fileSize) {
+                return scoring.score(latency, load, bytesPerSecond, fileSize);
+            }
+        };
+    }
+
+    // Parses the strategy names accepted by the CLI: weighted, latency, least-loaded, power-of-two, completion-time
+    static PeerSelectionStrategy forName(String name, double loadWeight) {
+        switch (name) {
+            case "weighted":
+                return weighted(loadWeight);
+            case "latency":
+                return latencyOnly();
+            case "least-loaded":
+                return leastLoaded();
+            case "power-of-two":
+                return powerOfChoices(2, leastLoaded());
+            case "completion-time":
+                // 100 Mbit/s until a peer's bandwidth is measured
+                return expectedCompletionTime(12.5e6);
+            default:
+                throw new IllegalArgumentException("Unknown peer selection strategy: " + name);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package edu.umn.peer;
+
+import edu.umn.utils.LatencyTable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Round-trip times to other peers, measured passively: a pooled connection times load probes and pings from
+// sending them to their response, keyed by resolved ip:port like the load cache.
+// Samples are smoothed per peer with an EWMA, like TCP's smoothed RTT (RFC 6298). The static latency table is the
+// prior, so a peer's estimate starts from its latency there and moves toward the measured samples; peers never
+// measured are estimated from the table, or predicted from network coordinates if the table has no entry for them.
+// Every sample also moves this peer's network coordinate toward the smoothed RTT.
+class RttEstimator {
+    // Weight of a new sample
+    private static final double ALPHA = 0.125;
+
+    private static class Estimate {
+        private final double smoothedMillis;
+        private final long samples;
+
+        private Estimate(double smoothedMillis, long samples) {
+            this.smoothedMillis = smoothedMillis;
+            this.samples = samples;
+        }
+    }
+
+    private final LatencyTable latencyTable;
+    private final int localPort;
+    private final CoordinateEstimator coordinateEstimator;
+    private final Map<String, Estimate> estimates = new ConcurrentHashMap<>();
+
+    RttEstimator(LatencyTable latencyTable, int localPort, CoordinateEstimator coordinateEstimator) {
+        this.latencyTable = latencyTable;
+        this.localPort = localPort;
+        this.coordinateEstimator = coordinateEstimator;
+    }
+
+    void record(String address, int port, long rttNanos) {
+        double sampleMillis = rttNanos / 1e6;
+        Estimate updated = estimates.compute(address, (key, estimate) -> {
+            if (estimate == null) {
+                int prior = latencyTable.getLatency(localPort, port);
+                if (prior == Integer.MAX_VALUE) {
+                    return new Estimate(sampleMillis, 1);
+                }
+                estimate = new Estimate(prior, 0);
+            }
+            return new Estimate((1 - ALPHA) * estimate.smoothedMillis + ALPHA * sampleMillis, estimate.samples + 1);
+        });
+        // The coordinate follows the smoothed RTT rather than the raw sample, which filters out the jitter of
+        // single round trips like the latency filter of Vivaldi implementations
+        coordinateEstimator.observe(address, updated.smoothedMillis);
+    }
+
+    // Latency in ms used to score the peer: the smoothed RTT if it was measured, otherwise the static latency,
+    // otherwise the latency predicted from network coordinates, otherwise Integer.MAX_VALUE
+    int estimate(String address, int port) {
+        Estimate estimate = estimates.get(address);
+        if (estimate != null) {
+            return (int) Math.round(estimate.smoothedMillis);
+        }
+        int latency = latencyTable.getLatency(localPort, port);
+        if (latency != Integer.MAX_VALUE) {
+            return latency;
+        }
+        double predicted = coordinateEstimator.predictMillis(address);
+        return predicted < 0 ? Integer.MAX_VALUE : (int) Math.round(predicted);
+    }
+
+    // Smoothed RTT in ms, or -1 if the peer was never measured
+    double getSmoothedMillis(String address) {
+        Estimate estimate = estimates.get(address);
+        return estimate == null ? -1 : estimate.smoothedMillis;
+    }
+
+    long getSamples(String address) {
+        Estimate estimate = estimates.get(address);
+        return estimate == null ? 0 : estimate.samples;
+    }
+
+    // Forgets what was measured to the peers on this port, so their estimates start over from the latency table
+    void reset(int port) {
+        estimates.keySet().removeIf(address -> address.endsWith(":" + port));
+    }
+}
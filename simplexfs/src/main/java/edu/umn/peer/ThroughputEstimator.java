@@ -0,0 +1,28 @@
+package edu.umn.peer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Bytes per second that past downloads from each peer achieved, keyed by resolved ip:port like the load cache.
+// Transfers shorter than MIN_SAMPLE_BYTES are dominated by the round trip and are not sampled. Samples are
+// smoothed with an EWMA, so one slow transfer does not rule a peer out and a peer that got slower is noticed.
+class ThroughputEstimator {
+    private static final long MIN_SAMPLE_BYTES = 256 * 1024;
+    // Weight of a new sample
+    private static final double ALPHA = 0.25;
+
+    private final Map<String, Double> bytesPerSecond = new ConcurrentHashMap<>();
+
+    void record(String address, long bytes, long nanos) {
+        if (bytes < MIN_SAMPLE_BYTES || nanos <= 0) {
+            return;
+        }
+        double sample = bytes * 1e9 / nanos;
+        bytesPerSecond.merge(address, sample, (smoothed, next) -> (1 - ALPHA) * smoothed + ALPHA * next);
+    }
+
+    // Smoothed bytes per second, or -1 if no download from the peer was sampled
+    double get(String address) {
+        return bytesPerSecond.getOrDefault(address, -1.0);
+    }
+}
@@ -0,0 +1,278 @@
+package edu.umn.server;
+
+import edu.umn.utils.Protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves the binary protocol from a single selector thread. Complete request frames are handed to a fixed
+// pool of workers and their responses are queued back to the selector thread for writing, so thousands of
+// connections need neither a thread each nor blocking reads.
+class EventLoopServer implements Closeable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // A connection with this many unanswered requests is not read from until responses drain
+    private static final int MAX_REQUESTS_IN_FLIGHT = 1024;
+    // Responses written to a channel with one gathering write
+    private static final int MAX_WRITE_BATCH = 64;
+
+    @FunctionalInterface
+    interface RequestHandler {
+        void handle(Protocol.Message request, String ipAddress, DataOutputStream outputStream) throws IOException;
+    }
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final RequestHandler handler;
+    // Connections with responses waiting to be written by the selector thread
+    private final Queue<Connection> pendingWrites;
+    private volatile boolean running;
+
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final String ipAddress;
+        private ByteBuffer readBuffer;
+        private final Queue<ByteBuffer> writeQueue;
+        private final AtomicBoolean writeScheduled;
+        private final AtomicInteger requestsInFlight;
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+            this.ipAddress = ((InetSocketAddress) channel.socket().getRemoteSocketAddress()).getAddress().getHostAddress();
+            this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            this.writeQueue = new ConcurrentLinkedQueue<>();
+            this.writeScheduled = new AtomicBoolean(false);
+            this.requestsInFlight = new AtomicInteger(0);
+        }
+    }
+
+    EventLoopServer(ServerSocketChannel serverChannel, int workerThreads, RequestHandler handler) throws IOException {
+        this.serverChannel = serverChannel;
+        this.selector = Selector.open();
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+        this.handler = handler;
+        this.pendingWrites = new ConcurrentLinkedQueue<>();
+    }
+
+    // Runs the event loop until close() is called
+    void run() throws IOException {
+        running = true;
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        try {
+            while (running) {
+                selector.select();
+                Connection pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    // Clear the flag before writing so that responses queued meanwhile schedule another write
+                    pending.writeScheduled.set(false);
+                    try {
+                        if (pending.key.isValid()) {
+                            write(pending);
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        closeConnection(pending);
+                    }
+                }
+                Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext()) {
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(connection);
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        closeConnection(connection);
+                    }
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+            workers.shutdown();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        if (connection.channel.read(connection.readBuffer) < 0) {
+            closeConnection(connection);
+            return;
+        }
+        ByteBuffer buffer = connection.readBuffer;
+        buffer.flip();
+        // Dispatch every complete frame; a partial frame stays in the buffer until the rest arrives
+        while (buffer.remaining() >= Protocol.HEADER_SIZE) {
+            int length = buffer.getInt(buffer.position() + Protocol.HEADER_SIZE - 4);
+            if (length < 0 || length > Protocol.MAX_PAYLOAD_SIZE) {
+                throw new IOException("Invalid payload length: " + length);
+            }
+            int frameSize = Protocol.HEADER_SIZE + length;
+            if (buffer.remaining() < frameSize) {
+                if (frameSize > buffer.capacity()) {
+                    ByteBuffer larger = ByteBuffer.allocate(frameSize);
+                    larger.put(buffer);
+                    larger.flip();
+                    buffer = larger;
+                }
+                break;
+            }
+            byte[] frame = new byte[frameSize];
+            buffer.get(frame);
+            dispatch(connection, frame);
+        }
+        buffer.compact();
+        connection.readBuffer = buffer;
+        if (connection.requestsInFlight.get() >= MAX_REQUESTS_IN_FLIGHT) {
+            connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private void dispatch(Connection connection, byte[] frame) {
+        connection.requestsInFlight.incrementAndGet();
+        try {
+            workers.execute(() -> {
+                Protocol.Message request = null;
+                try {
+                    request = Protocol.readMessage(new DataInputStream(new ByteArrayInputStream(frame)));
+                    ByteArrayOutputStream response = new ByteArrayOutputStream();
+                    handler.handle(request, connection.ipAddress, new DataOutputStream(response));
+                    send(connection, ByteBuffer.wrap(response.toByteArray()));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    fail(connection);
+                } catch (RuntimeException e) {
+                    // A bug in the handler: answer the request with an error so that the peer is not left waiting,
+                    // and the reply frees its slot once written like any other response
+                    e.printStackTrace();
+                    if (request == null) {
+                        fail(connection);
+                    } else {
+                        sendError(connection, request.requestId, e.toString());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fail(connection); // The server is stopping
+        }
+    }
+
+    // Closes the connection of a request that gets no response, freeing its slot
+    private void fail(Connection connection) {
+        closeConnection(connection);
+        connection.requestsInFlight.decrementAndGet();
+    }
+
+    private void sendError(Connection connection, int requestId, String error) {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        try {
+            Protocol.writeError(new DataOutputStream(response), requestId, error);
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail(connection);
+            return;
+        }
+        send(connection, ByteBuffer.wrap(response.toByteArray()));
+    }
+
+    // Called by workers; the selector thread performs the write
+    private void send(Connection connection, ByteBuffer response) {
+        connection.writeQueue.add(response);
+        if (connection.writeScheduled.compareAndSet(false, true)) {
+            pendingWrites.add(connection);
+            selector.wakeup();
+        }
+    }
+
+    private void write(Connection connection) throws IOException {
+        List<ByteBuffer> batch = new ArrayList<>();
+        while (true) {
+            batch.clear();
+            for (ByteBuffer response : connection.writeQueue) {
+                batch.add(response);
+                if (batch.size() == MAX_WRITE_BATCH) {
+                    break;
+                }
+            }
+            if (batch.isEmpty()) {
+                break;
+            }
+            connection.channel.write(batch.toArray(new ByteBuffer[0]));
+            for (ByteBuffer response : batch) {
+                if (response.hasRemaining()) {
+                    // The socket buffer is full; continue when the channel becomes writable
+                    connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                connection.writeQueue.poll();
+                connection.requestsInFlight.decrementAndGet();
+            }
+        }
+        int interestOps = connection.key.interestOps() & ~SelectionKey.OP_WRITE;
+        if (connection.requestsInFlight.get() < MAX_REQUESTS_IN_FLIGHT) {
+            interestOps |= SelectionKey.OP_READ;
+        }
+        connection.key.interestOps(interestOps);
+    }
+
+    private void closeConnection(Connection connection) {
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+}
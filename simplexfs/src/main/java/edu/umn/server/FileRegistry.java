@@ -0,0 +1,275 @@
+package edu.umn.server;
+
+import edu.umn.server.TrackingServer.FileInfo;
+import edu.umn.server.TrackingServer.PeerInfo;
+import edu.umn.utils.NetworkCoordinate;
+import edu.umn.utils.Protocol;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+
+// Files registered with the tracking server, and for each peer the files it stores and the version of its list.
+// The peer -> files reverse index lets a peer's departure or a replaced list touch only that peer's files
+// instead of every registered file.
+// Changes to one peer's list are serialized on that peer's record and changes to one file are atomic through
+// ConcurrentHashMap.compute, so different peers update their lists concurrently and lookups never block.
+public class FileRegistry {
+    // Version of a list received without one, such as during recovery; no delta applies to it
+    public static final long UNVERSIONED = -1;
+
+    private final Map<String, FileInfo> files = new ConcurrentHashMap<>();
+    // Names of the registered files in order, so that a prefix lookup is a range scan
+    private final NavigableSet<String> filenames = new ConcurrentSkipListSet<>();
+    private final Map<String, PeerRecord> peers = new ConcurrentHashMap<>();
+    private volatile ChangeListener changeListener;
+
+    // Told about every change while the changed peer's record is locked, so the changes of one peer are seen
+    // in the order they were applied. A change the listener fails to record leaves the peer's list unversioned:
+    // its next delta is refused and it sends its whole list again, so no delta builds on a version never recorded
+    public interface ChangeListener {
+        void replaced(String ipAddress, int port, long version, Map<String, String> fileList) throws IOException;
+
+        void deltaApplied(String ipAddress, int port, long baseVersion, Map<String, String> addedFiles,
+                          List<String> removedFiles) throws IOException;
+
+        void peerRemoved(String peerKey) throws IOException;
+    }
+
+    private interface Change {
+        void notify(ChangeListener listener) throws IOException;
+    }
+
+    public interface PeerVisitor {
+        void visit(String ipAddress, int port, long version, Map<String, String> fileList) throws IOException;
+    }
+
+    private static class PeerRecord {
+        private final String key;
+        private final PeerInfo peerInfo;
+        // Guarded by the record
+        private final Set<String> files = new HashSet<>();
+        private long version = UNVERSIONED;
+        private boolean removed;
+
+        private PeerRecord(String key, PeerInfo peerInfo) {
+            this.key = key;
+            this.peerInfo = peerInfo;
+        }
+    }
+
+    public void setChangeListener(ChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    // Read-only view of all files
+    public Map<String, FileInfo> asMap() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    // The file's checksum and the peers that store it, copied so that it can be written while peers come and go.
+    // This is what FIND answers with: coordinates stay objects and are written in binary
+    public Protocol.PeerList locate(String filename) {
+        FileInfo fileInfo = files.get(filename);
+        if (fileInfo == null) {
+            return Protocol.PeerList.EMPTY;
+        }
+        return new Protocol.PeerList(fileInfo.checksum, new ArrayList<>(fileInfo.peers.values()));
+    }
+
+    // Records the peer's network coordinate; returns false for an unknown peer
+    public boolean setCoordinate(String ipAddress, int port, NetworkCoordinate coordinate) {
+        PeerRecord record = peers.get(ipAddress + ":" + port);
+        if (record == null) {
+            return false;
+        }
+        record.peerInfo.setCoordinate(coordinate);
+        return true;
+    }
+
+    public NavigableSet<String> filenamesWithPrefix(String prefix) {
+        return filenames.subSet(prefix, true, prefix + Character.MAX_VALUE, true);
+    }
+
+    // Files stored by the peer, or an empty set for an unknown peer
+    public Set<String> getPeerFiles(String ipAddress, int port) {
+        PeerRecord record = peers.get(ipAddress + ":" + port);
+        if (record == null) {
+            return Collections.emptySet();
+        }
+        synchronized (record) {
+            return new HashSet<>(record.files);
+        }
+    }
+
+    // Replaces the peer's file list; only files that left or joined the list are touched
+    public void replace(String ipAddress, int port, long version, Map<String, String> fileList) {
+        updatePeer(ipAddress, port, record -> {
+            List<String> removedFiles = new ArrayList<>();
+            for (String filename : record.files) {
+                if (!fileList.containsKey(filename)) {
+                    removedFiles.add(filename);
+                }
+            }
+            for (String filename : removedFiles) {
+                removeFile(filename, record);
+            }
+            for (Map.Entry<String, String> entry : fileList.entrySet()) {
+                addFile(entry.getKey(), entry.getValue(), record);
+            }
+            record.version = version;
+            if (!notifyListener(listener -> listener.replaced(ipAddress, port, version, fileList))) {
+                record.version = UNVERSIONED;
+            }
+            return null;
+        });
+    }
+
+    // Applies the files added and removed since baseVersion to the peer's list; returns the new version, or -1
+    // if the list held here is not at baseVersion
+    public long applyDelta(String ipAddress, int port, long baseVersion, Map<String, String> addedFiles,
+                           List<String> removedFiles) {
+        return updatePeer(ipAddress, port, record -> {
+            if (record.version == UNVERSIONED || record.version != baseVersion) {
+                return -1L;
+            }
+            for (String filename : removedFiles) {
+                removeFile(filename, record);
+            }
+            for (Map.Entry<String, String> entry : addedFiles.entrySet()) {
+                addFile(entry.getKey(), entry.getValue(), record);
+            }
+            record.version = baseVersion + 1;
+            if (!notifyListener(listener -> listener.deltaApplied(ipAddress, port, baseVersion, addedFiles, removedFiles))) {
+                // The peer is told to resync, and its whole list replaces the one held here
+                record.version = UNVERSIONED;
+                return -1L;
+            }
+            return record.version;
+        });
+    }
+
+    // Version of the peer's list held here, or UNVERSIONED
+    public long getVersion(String ipAddress, int port) {
+        PeerRecord record = peers.get(ipAddress + ":" + port);
+        if (record == null) {
+            return UNVERSIONED;
+        }
+        synchronized (record) {
+            return record.version;
+        }
+    }
+
+    // Visits every peer with its list as a consistent copy; lists of different peers may be copied at different times
+    public void forEachPeer(PeerVisitor visitor) throws IOException {
+        for (PeerRecord record : peers.values()) {
+            String ipAddress = record.peerInfo.getIpAddress();
+            int port = record.peerInfo.getPort();
+            long version;
+            Map<String, String> fileList = new HashMap<>();
+            synchronized (record) {
+                if (record.removed) {
+                    continue;
+                }
+                version = record.version;
+                for (String filename : record.files) {
+                    FileInfo fileInfo = files.get(filename);
+                    if (fileInfo != null) {
+                        fileList.put(filename, fileInfo.checksum);
+                    }
+                }
+            }
+            visitor.visit(ipAddress, port, version, fileList);
+        }
+    }
+
+    // Removes the peer and unregisters the files it stored; returns false for an unknown peer
+    public boolean removePeer(String peerKey) {
+        PeerRecord record = peers.remove(peerKey);
+        if (record == null) {
+            return false;
+        }
+        synchronized (record) {
+            for (String filename : record.files) {
+                removePeerFromFile(filename, record);
+            }
+            record.files.clear();
+            record.removed = true;
+            notifyListener(listener -> listener.peerRemoved(peerKey));
+        }
+        return true;
+    }
+
+    // Returns false if the listener failed to record the change
+    private boolean notifyListener(Change change) {
+        ChangeListener listener = changeListener;
+        if (listener == null) {
+            return true;
+        }
+        try {
+            change.notify(listener);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private <T> T updatePeer(String ipAddress, int port, Function<PeerRecord, T> update) {
+        String peerKey = ipAddress + ":" + port;
+        while (true) {
+            PeerRecord record = peers.computeIfAbsent(peerKey, key -> new PeerRecord(key, new PeerInfo(ipAddress, port)));
+            synchronized (record) {
+                // A record removed while we waited for it is replaced by a new one
+                if (!record.removed) {
+                    return update.apply(record);
+                }
+            }
+        }
+    }
+
+    private void addFile(String filename, String checksum, PeerRecord record) {
+        if (!record.files.add(filename)) {
+            return;
+        }
+        files.compute(filename, (name, fileInfo) -> {
+            if (fileInfo == null) {
+                fileInfo = new FileInfo(checksum);
+                filenames.add(name);
+            }
+            fileInfo.peers.put(record.key, record.peerInfo);
+            return fileInfo;
+        });
+    }
+
+    private void removeFile(String filename, PeerRecord record) {
+        if (record.files.remove(filename)) {
+            removePeerFromFile(filename, record);
+        }
+    }
+
+    private void removePeerFromFile(String filename, PeerRecord record) {
+        files.computeIfPresent(filename, (name, fileInfo) -> {
+            fileInfo.peers.remove(record.key);
+            if (!fileInfo.peers.isEmpty()) {
+                return fileInfo;
+            }
+            // No peer stores the file anymore
+            filenames.remove(name);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,276 @@
+package edu.umn.server;
+
+import edu.umn.utils.Protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Write-ahead log of the tracking server's registry, so that a restarted tracker rebuilds it from disk instead
+// of asking every peer for its whole file list.
+// Every change is appended to the current log segment (registry.wal.<n>) before the peer is answered. A snapshot
+// (registry.snapshot) periodically compacts the log: the segment is closed, a new one started, the registry
+// written out, and segments older than the snapshot deleted. Records are idempotent when replayed on a snapshot
+// taken while they were being written: lists are replaced whole and deltas apply only to their base version.
+class RegistryLog implements FileRegistry.ChangeListener {
+    private static final String SNAPSHOT_FILE = "registry.snapshot";
+    private static final String SEGMENT_PREFIX = "registry.wal.";
+    private static final byte REPLACED = 1;
+    private static final byte DELTA_APPLIED = 2;
+    private static final byte PEER_REMOVED = 3;
+
+    private final Path directory;
+    // Only one snapshot is written at a time
+    private final Object snapshotLock = new Object();
+    // Guarded by the log
+    private DataOutputStream segment;
+    private long segmentNumber;
+    private long recordsSinceSnapshot;
+
+    RegistryLog(Path directory) {
+        this.directory = directory;
+    }
+
+    // Rebuilds the registry from the latest snapshot and the log segments written after it, then starts a new
+    // segment for the changes to come
+    synchronized void load(FileRegistry registry) throws IOException {
+        long startTime = System.nanoTime();
+        Files.createDirectories(directory);
+        long firstSegment = readSnapshot(registry);
+        long replayedRecords = 0;
+        long lastSegment = firstSegment - 1;
+        for (Map.Entry<Long, Path> entry : listSegments().entrySet()) {
+            if (entry.getKey() >= firstSegment) {
+                replayedRecords += replaySegment(entry.getValue(), registry);
+            }
+            lastSegment = Math.max(lastSegment, entry.getKey());
+        }
+        // A segment may end in a torn record, so appending always starts a new one
+        openSegment(lastSegment + 1);
+        recordsSinceSnapshot = replayedRecords;
+        System.out.println("Restored " + registry.size() + " files from " + directory + " (" + replayedRecords
+                + " log records) in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+    }
+
+    @Override
+    public void replaced(String ipAddress, int port, long version, Map<String, String> fileList) throws IOException {
+        append(REPLACED, out -> {
+            out.writeUTF(ipAddress);
+            out.writeInt(port);
+            out.writeLong(version);
+            Protocol.writeFileList(out, fileList);
+        });
+    }
+
+    @Override
+    public void deltaApplied(String ipAddress, int port, long baseVersion, Map<String, String> addedFiles,
+                             List<String> removedFiles) throws IOException {
+        append(DELTA_APPLIED, out -> {
+            out.writeUTF(ipAddress);
+            out.writeInt(port);
+            out.writeLong(baseVersion);
+            Protocol.writeFileList(out, addedFiles);
+            Protocol.writeNameList(out, removedFiles);
+        });
+    }
+
+    @Override
+    public void peerRemoved(String peerKey) throws IOException {
+        append(PEER_REMOVED, out -> out.writeUTF(peerKey));
+    }
+
+    synchronized long getRecordsSinceSnapshot() {
+        return recordsSinceSnapshot;
+    }
+
+    // Writes the registry to a new snapshot and deletes the log segments it covers
+    void snapshot(FileRegistry registry) throws IOException {
+        synchronized (snapshotLock) {
+            long startTime = System.nanoTime();
+            long firstSegment;
+            synchronized (this) {
+                if (segment == null) {
+                    return;
+                }
+                // Changes from now on go to the next segment and are replayed on top of this snapshot
+                firstSegment = segmentNumber + 1;
+                segment.close();
+                openSegment(firstSegment);
+                recordsSinceSnapshot = 0;
+            }
+            Path tempPath = directory.resolve(SNAPSHOT_FILE + ".tmp");
+            int[] peers = new int[1];
+            try (FileOutputStream file = new FileOutputStream(tempPath.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                out.writeLong(firstSegment);
+                registry.forEachPeer((ipAddress, port, version, fileList) -> {
+                    out.writeBoolean(true);
+                    out.writeUTF(ipAddress);
+                    out.writeInt(port);
+                    out.writeLong(version);
+                    Protocol.writeFileList(out, fileList);
+                    peers[0]++;
+                });
+                out.writeBoolean(false);
+                out.flush();
+                file.getFD().sync();
+            }
+            // Write to a temporary file first so a crash never leaves a truncated snapshot behind
+            Files.move(tempPath, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (Map.Entry<Long, Path> entry : listSegments().entrySet()) {
+                if (entry.getKey() < firstSegment) {
+                    Files.deleteIfExists(entry.getValue());
+                }
+            }
+            System.out.println("Wrote registry snapshot of " + peers[0] + " peers in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+        }
+    }
+
+    synchronized void close() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        segment = null;
+    }
+
+    // Each record is its length, a CRC32 of its body and the body: a type byte followed by the change.
+    // A failed write is thrown to the registry, which then stops trusting the peer's version
+    private synchronized void append(byte type, Protocol.PayloadWriter writer) throws IOException {
+        if (segment == null) {
+            return;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(buffer);
+        body.writeByte(type);
+        writer.write(body);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.toByteArray());
+        try {
+            segment.writeInt(buffer.size());
+            segment.writeInt((int) crc.getValue());
+            buffer.writeTo(segment);
+            // Flushed to the OS before the peer is answered, so the change survives a crash of the tracker
+            segment.flush();
+        } catch (IOException e) {
+            // The segment may now end in a torn record, after which replay stops, so later records start a new one
+            try {
+                segment.close();
+            } catch (IOException closeException) {
+                // Already failing
+            }
+            openSegment(segmentNumber + 1);
+            throw e;
+        }
+        recordsSinceSnapshot++;
+    }
+
+    private void openSegment(long number) throws IOException {
+        segmentNumber = number;
+        segment = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(directory.resolve(SEGMENT_PREFIX + number).toFile(), true)));
+    }
+
+    private TreeMap<Long, Path> listSegments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX)) {
+                    try {
+                        segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length())), path);
+                    } catch (NumberFormatException e) {
+                        // Not a log segment
+                    }
+                }
+            });
+        }
+        return segments;
+    }
+
+    // Returns the number of the first log segment written after the snapshot
+    private long readSnapshot(FileRegistry registry) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(SNAPSHOT_FILE))))) {
+            long firstSegment = in.readLong();
+            while (in.readBoolean()) {
+                String ipAddress = in.readUTF();
+                int port = in.readInt();
+                long version = in.readLong();
+                registry.replace(ipAddress, port, version, Protocol.readFileList(in));
+            }
+            return firstSegment;
+        } catch (NoSuchFileException e) {
+            return 0; // No snapshot yet, the whole log is replayed
+        }
+    }
+
+    private long replaySegment(Path path, FileRegistry registry) throws IOException {
+        long records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                byte[] body;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length <= 0 || length > Protocol.MAX_PAYLOAD_SIZE) {
+                        throw new EOFException();
+                    }
+                    body = new byte[length];
+                    in.readFully(body);
+                    CRC32 crc = new CRC32();
+                    crc.update(body);
+                    if ((int) crc.getValue() != checksum) {
+                        throw new EOFException();
+                    }
+                } catch (EOFException e) {
+                    break; // End of the segment, or a record torn by a crash
+                }
+                replayRecord(new DataInputStream(new ByteArrayInputStream(body)), registry);
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private void replayRecord(DataInputStream record, FileRegistry registry) throws IOException {
+        byte type = record.readByte();
+        if (type == REPLACED) {
+            String ipAddress = record.readUTF();
+            int port = record.readInt();
+            long version = record.readLong();
+            registry.replace(ipAddress, port, version, Protocol.readFileList(record));
+        } else if (type == DELTA_APPLIED) {
+            String ipAddress = record.readUTF();
+            int port = record.readInt();
+            long baseVersion = record.readLong();
+            Map<String, String> addedFiles = Protocol.readFileList(record);
+            List<String> removedFiles = Protocol.readNameList(record);
+            registry.applyDelta(ipAddress, port, baseVersion, addedFiles, removedFiles);
+        } else if (type == PEER_REMOVED) {
+            registry.removePeer(record.readUTF());
+        } else {
+            throw new IOException("Unknown log record type: " + type);
+        }
+    }
+}
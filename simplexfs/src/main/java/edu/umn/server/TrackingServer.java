@@ -1,20 +1,38 @@
 package edu.umn.server;
 
-
+import edu.umn.utils.NetworkCoordinate;
+import edu.umn.utils.Protocol;
+import edu.umn.utils.ThreadPools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 public class TrackingServer {
     private static final int RECOVERY_TIMEOUT_SECONDS = 10;
+    // Peers asked for their lists at once during recovery
+    private static final int RECOVERY_PARALLELISM = 64;
+    // Pending connection queue of the event loop, sized for bursts of peers connecting at once
+    private static final int ACCEPT_BACKLOG = 1024;
+    // The registry's log is compacted into a snapshot this often, if it changed
+    private static final int SNAPSHOT_INTERVAL_SECONDS = 60;
     private final int port;
-    private final Map<String, FileInfo> fileRegistry;
+    private final FileRegistry fileRegistry;
 
     private ServerSocket serverSocket;
 
@@ -22,21 +40,74 @@ public class TrackingServer {
 
     private final Set<String> knownPeers;
 
-    private final ThreadPoolExecutor executor;
+    private volatile ExecutorService executor;
+
+    private volatile boolean eventLoopEnabled;
+
+    private volatile int workerThreads = Runtime.getRuntime().availableProcessors();
+
+    private volatile EventLoopServer eventLoopServer;
 
     private final ScheduledExecutorService timeoutExecutor = Executors.newScheduledThreadPool(1);
 
     private final Set<String> peerInfoReceived = ConcurrentHashMap.newKeySet();
 
+    // Directory of the registry's write-ahead log and snapshots; without one the registry is kept only in memory
+    private volatile Path stateDirectory;
+
+    private volatile RegistryLog registryLog;
+
+    private volatile ScheduledFuture<?> snapshotTask;
+
+    private volatile long startNanos;
+
+    private final AtomicLong firstFindNanos = new AtomicLong(-1);
+
+    private volatile RecoveryReport lastRecovery;
+
     public TrackingServer(int port) {
         this.port = port;
-        this.fileRegistry = new ConcurrentHashMap<>();
+        this.fileRegistry = new FileRegistry();
         this.knownPeers = ConcurrentHashMap.newKeySet();
-        this.executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+        this.executor = ThreadPools.newTaskExecutor();
+    }
+
+    // Serve requests from one selector thread and a fixed worker pool instead of a thread per connection
+    public void setEventLoopEnabled(boolean eventLoopEnabled) {
+        this.eventLoopEnabled = eventLoopEnabled;
+    }
+
+    // Number of threads processing requests in event-loop mode (default: one per core)
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    // Persist the registry in this directory and restore it from there on start
+    public void setStateDirectory(String stateDirectory) {
+        this.stateDirectory = stateDirectory == null ? null : Path.of(stateDirectory);
+    }
+
+    // Time from the last start() until the first FIND was answered, or -1 if none was answered yet
+    public long getTimeToFirstFindMicros() {
+        long findNanos = firstFindNanos.get();
+        return findNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(findNanos - startNanos);
+    }
+
+    // Compacts the registry's log into a snapshot now
+    public void snapshot() {
+        RegistryLog log = registryLog;
+        if (log == null) {
+            return;
+        }
+        try {
+            log.snapshot(fileRegistry);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public Map<String, FileInfo> getFileRegistry() {
-        return fileRegistry;
+        return fileRegistry.asMap();
     }
 
     public static class FileInfo {
@@ -45,7 +116,7 @@ public class TrackingServer {
 
         public FileInfo(String checksum) {
             this.checksum = checksum;
-            this.peers = new HashMap<>();
+            this.peers = new ConcurrentHashMap<>();
         }
         @Override
         public String toString() {
@@ -56,9 +127,45 @@ public class TrackingServer {
         }
     }
 
-    public static class PeerInfo {
+    // Outcome of one recovery broadcast
+    public static class RecoveryReport {
+        private final int peers;
+        private final int responders;
+        private final long durationMillis;
+
+        public RecoveryReport(int peers, int responders, long durationMillis) {
+            this.peers = peers;
+            this.responders = responders;
+            this.durationMillis = durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "RecoveryReport{" +
+                    "peers=" + peers +
+                    ", responders=" + responders +
+                    ", durationMillis=" + durationMillis +
+                    '}';
+        }
+
+        public int getPeers() {
+            return peers;
+        }
+
+        public int getResponders() {
+            return responders;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+    }
+
+    public static class PeerInfo implements Protocol.PeerLocation {
         private final String ipAddress;
         private final int port;
+        // Last network coordinate the peer reported, or null
+        private volatile NetworkCoordinate coordinate;
 
 
         public PeerInfo(String ipAddress, int port) {
@@ -73,17 +180,26 @@ public class TrackingServer {
                     '}';
         }
 
+        @Override
         public int getPort() {
             return port;
         }
+        @Override
         public String getIpAddress() {
             return ipAddress;
         }
+        @Override
+        public NetworkCoordinate getCoordinate() {
+            return coordinate;
+        }
+        public void setCoordinate(NetworkCoordinate coordinate) {
+            this.coordinate = coordinate;
+        }
     }
 
     public void printFileRegistry() {
         System.out.println("Updated file registry:");
-        for (Map.Entry<String, FileInfo> entry : fileRegistry.entrySet()) {
+        for (Map.Entry<String, FileInfo> entry : fileRegistry.asMap().entrySet()) {
             System.out.println("  " + entry.getKey() + ": " + entry.getValue());
         }
     }
@@ -91,7 +207,18 @@ public class TrackingServer {
 
     public synchronized void start() {
         running = true;
+        startNanos = System.nanoTime();
+        firstFindNanos.set(-1);
         System.out.println("Starting server on port " + port);
+        restoreState();
+        // A stopped server can be started again, as after a crash
+        if (executor.isShutdown()) {
+            executor = ThreadPools.newTaskExecutor();
+        }
+        if (eventLoopEnabled) {
+            startEventLoop();
+            return;
+        }
 
         try (ServerSocket serverSocket = new ServerSocket(port)) {
             this.serverSocket = serverSocket; // Store the reference to the server socket
@@ -127,55 +254,119 @@ public class TrackingServer {
 
     }
 
+    private void startEventLoop() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            this.serverSocket = serverChannel.socket();
+            // Start to recover server if it recovers from a crash and has known peers
+            if (!knownPeers.isEmpty()) {
+                recoverServer();
+            }
+            eventLoopServer = new EventLoopServer(serverChannel, workerThreads, this::handleRequest);
+            if (running) {
+                eventLoopServer.run();
+            }
+        } catch (IOException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     private void handleConnection(Socket socket) throws IOException {
-        ObjectInputStream inputStream = null;
-        ObjectOutputStream outputStream = null;
+        // Connections are persistent: requests are answered in order until the peer closes the connection
+        String ipAddress = socket.getInetAddress().getHostAddress();
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
 
-        try {
-            inputStream = new ObjectInputStream(socket.getInputStream());
-            outputStream = new ObjectOutputStream(socket.getOutputStream());
-
-            String requestType = (String) inputStream.readObject();
-            if ("FIND".equals(requestType)) {
-                String filename = (String) inputStream.readObject();
-                List<String> peerList = find(filename);
-                outputStream.writeObject(peerList);
-            } else if ("UPDATE_LIST".equals(requestType)) {
-                int peerPort = inputStream.readInt();
-                @SuppressWarnings("unchecked")
-                Map<String, String> fileList = (HashMap<String, String>) inputStream.readObject();
-                // Handle the received file list (peer IP address and port can be obtained from the socket)
-                receiveFileList(socket.getInetAddress().getHostAddress(), peerPort, fileList);
-                // Send response to the client
-                outputStream.writeObject("UPDATE_LIST_SUCCESS" + ":" + peerPort);
-
-            } else if ("RECOVER_SERVER_RESPONSE".equals(requestType)) {
-                int peerPort = inputStream.readInt();
-                @SuppressWarnings("unchecked")
-                Map<String, String> fileList = (HashMap<String, String>) inputStream.readObject();
-                // Handle the received file list (peer IP address and port can be obtained from the socket)
-                receiveFileList(socket.getInetAddress().getHostAddress(), peerPort, fileList);
-                outputStream.writeObject("RECOVER_LIST_SUCCESS");
-                // Mark the peer as having sent its file list
-                peerInfoReceived.add(socket.getInetAddress().getHostAddress() + ":" + peerPort);
-            } else {
-                // Unknown request type
-                System.out.println("Unknown request type: " + requestType);
+            while (running) {
+                Protocol.Message request;
+                try {
+                    request = Protocol.readMessage(inputStream);
+                } catch (EOFException e) {
+                    break; // The peer closed the connection
+                }
+                handleRequest(request, ipAddress, outputStream);
             }
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (inputStream != null) {
-                inputStream.close();
+        }
+    }
+
+    private void handleRequest(Protocol.Message request, String ipAddress, DataOutputStream outputStream) throws IOException {
+        if (request.opcode == Protocol.FIND) {
+            String filename = request.payload.readUTF();
+            Protocol.PeerList peerList = find(filename);
+            firstFindNanos.compareAndSet(-1, System.nanoTime());
+            Protocol.writeMessage(outputStream, request.requestId, Protocol.FIND_RESULT, payload -> Protocol.writePeerList(payload, peerList));
+        } else if (request.opcode == Protocol.FIND_BATCH) {
+            byte mode = request.payload.readByte();
+            Map<String, Protocol.PeerList> locations;
+            if (mode == Protocol.BATCH_BY_PREFIX) {
+                locations = findByPrefix(request.payload.readUTF());
+            } else if (mode == Protocol.BATCH_BY_NAME) {
+                locations = findBatch(Protocol.readNameList(request.payload));
+            } else {
+                Protocol.writeError(outputStream, request.requestId, "Unknown FIND_BATCH mode: " + mode);
+                return;
             }
-            if (outputStream != null) {
-                outputStream.close();
+            firstFindNanos.compareAndSet(-1, System.nanoTime());
+            Protocol.writeMessage(outputStream, request.requestId, Protocol.FIND_BATCH_RESULT, payload -> Protocol.writeFileLocations(payload, locations));
+        } else if (request.opcode == Protocol.UPDATE_LIST) {
+            int peerPort = request.payload.readInt();
+            long version = request.payload.readLong();
+            Map<String, String> fileList = Protocol.readFileList(request.payload);
+            // Handle the received file list (peer IP address and port can be obtained from the socket)
+            receiveFileList(ipAddress, peerPort, version, fileList);
+            // Send response to the client
+            Protocol.writeMessage(outputStream, request.requestId, Protocol.UPDATE_LIST_SUCCESS, payload -> {
+                payload.writeInt(peerPort);
+                payload.writeLong(version);
+            });
+
+        } else if (request.opcode == Protocol.UPDATE_LIST_DELTA) {
+            int peerPort = request.payload.readInt();
+            long baseVersion = request.payload.readLong();
+            Map<String, String> addedFiles = Protocol.readFileList(request.payload);
+            List<String> removedFiles = Protocol.readNameList(request.payload);
+            long version = receiveFileListDelta(ipAddress, peerPort, baseVersion, addedFiles, removedFiles);
+            if (version < 0) {
+                // The delta does not apply to the list held here; the peer sends its whole list instead
+                Protocol.writeMessage(outputStream, request.requestId, Protocol.RESYNC_REQUIRED, payload -> payload.writeInt(peerPort));
+            } else {
+                Protocol.writeMessage(outputStream, request.requestId, Protocol.UPDATE_LIST_SUCCESS, payload -> {
+                    payload.writeInt(peerPort);
+                    payload.writeLong(version);
+                });
             }
+
+        } else if (request.opcode == Protocol.UPDATE_COORDINATE) {
+            int peerPort = request.payload.readInt();
+            NetworkCoordinate coordinate = NetworkCoordinate.read(request.payload);
+            // Coordinates are soft state: they are not logged, and a peer that registered no files yet is told
+            // to report again later
+            boolean stored = fileRegistry.setCoordinate(ipAddress, peerPort, coordinate);
+            Protocol.writeMessage(outputStream, request.requestId, Protocol.UPDATE_COORDINATE_SUCCESS, payload -> payload.writeBoolean(stored));
+
+        } else if (request.opcode == Protocol.RECOVER_SERVER_RESPONSE) {
+            // Handle the received file list (peer IP address and port can be obtained from the socket)
+            int peerPort = receiveRecoveryResponse(ipAddress, request.payload);
+            Protocol.writeMessage(outputStream, request.requestId, Protocol.RECOVER_LIST_SUCCESS, null);
+            // Mark the peer as having sent its file list
+            peerInfoReceived.add(ipAddress + ":" + peerPort);
+        } else {
+            // Unknown request type
+            System.out.println("Unknown request type: " + request.opcode);
+            Protocol.writeError(outputStream, request.requestId, "Unknown request type: " + request.opcode);
         }
     }
 
     public void stop() {
         running = false;
+        closeState();
+        if (eventLoopServer != null) {
+            eventLoopServer.close();
+        }
         executor.shutdown();
         try {
             executor.awaitTermination(5, TimeUnit.SECONDS);
@@ -188,52 +379,54 @@ public class TrackingServer {
             e.printStackTrace();
         }
     }
-    private List<String> find(String filename) {
+    private Protocol.PeerList find(String filename) {
         // Returns the list of peers that store the specified file and the file's checksum
-        FileInfo fileInfo = fileRegistry.get(filename);
-        if (fileInfo != null) {
-            List<String> peerList = new ArrayList<>();
-            for (PeerInfo peerInfo : fileInfo.peers.values()) {
-                String peerIpPortCheckSum = peerInfo.ipAddress + ":" + peerInfo.port + ":" + fileInfo.checksum;
-                peerList.add(peerIpPortCheckSum);
-            }
-            return peerList;
-        }
-        return new ArrayList<>();
+        return fileRegistry.locate(filename);
     }
 
-    private void receiveFileList(String ipAddress, int port, Map<String, String> fileList) {
-        // Debug: Print the received file list
-        System.out.println("Received file list: " + fileList);
+    private Map<String, Protocol.PeerList> findBatch(List<String> filenames) {
+        // Returns the peer list of every requested file, so that a peer looking up many files needs one round
+        // trip instead of one per file
+        Map<String, Protocol.PeerList> locations = new LinkedHashMap<>();
+        for (String filename : filenames) {
+            locations.put(filename, find(filename));
+        }
+        return locations;
+    }
 
-        // Receives and updates the file list and checksums for the specified peer
-        PeerInfo peerInfo = new PeerInfo(ipAddress, port);
-        for (Map.Entry<String, String> entry : fileList.entrySet()) {
-            String filename = entry.getKey();
-            String checksum = entry.getValue();
-            FileInfo fileInfo = fileRegistry.get(filename);
-            if (fileInfo == null) {
-                fileInfo = new FileInfo(checksum);
-                fileRegistry.put(filename, fileInfo);
+    private Map<String, Protocol.PeerList> findByPrefix(String prefix) {
+        // Returns the peer list of every registered file whose name starts with the prefix
+        Map<String, Protocol.PeerList> locations = new LinkedHashMap<>();
+        for (String filename : fileRegistry.filenamesWithPrefix(prefix)) {
+            Protocol.PeerList peerList = find(filename);
+            if (!peerList.peers.isEmpty()) {
+                locations.put(filename, peerList);
             }
-            fileInfo.peers.put(peerInfo.ipAddress + ":" + port, peerInfo);
         }
+        return locations;
+    }
 
-        // Debug: Print the updated fileRegistry
-        System.out.println("Updated file registry: " + fileRegistry);
+    private void receiveFileList(String ipAddress, int port, long version, Map<String, String> fileList) {
+        // Replaces the file list of the specified peer with the received list
+        fileRegistry.replace(ipAddress, port, version, fileList);
+        System.out.println("Received file list of " + ipAddress + ":" + port + ": " + fileList.size() + " files, version " + version);
         // Register the peer if it is not already registered
         registerPeer(ipAddress, port);
     }
 
-    private void updateList(String ipAddress, int port, Map<String, String> fileList) {
-        // Updates the list of files stored by the specified peer
-        // Remove the old file list associated with this peer
-        for (FileInfo fileInfo : fileRegistry.values()) {
-            fileInfo.peers.remove(ipAddress);
+    // Applies the files added and removed since baseVersion to the peer's list; returns the new version, or -1
+    // if the list held here is not at baseVersion
+    private long receiveFileListDelta(String ipAddress, int port, long baseVersion, Map<String, String> addedFiles,
+                                      List<String> removedFiles) {
+        long version = fileRegistry.applyDelta(ipAddress, port, baseVersion, addedFiles, removedFiles);
+        if (version < 0) {
+            System.out.println("File list of " + ipAddress + ":" + port + " is at version "
+                    + fileRegistry.getVersion(ipAddress, port) + ", not " + baseVersion + "; resync required");
+        } else {
+            System.out.println("Updated file list of " + ipAddress + ":" + port + ": " + addedFiles.size() + " added, "
+                    + removedFiles.size() + " removed, version " + version);
         }
-
-        // Add the updated file list for this peer
-        receiveFileList(ipAddress, port, fileList);
+        return version;
     }
 
     public void registerPeer(String ipAddress, int port) {
@@ -241,60 +434,203 @@ public class TrackingServer {
     }
 
 
-    public void broadcastRequest() {
-        for (String peerAddress : knownPeers) {
-            String[] addressParts = peerAddress.split(":");
-            String ipAddress = addressParts[0];
-            int port = Integer.parseInt(addressParts[1]);
-            System.out.println("Sending RECOVER_SERVER request to " + peerAddress);
-            // Send RECOVER_SERVER request to the peer
-            try (Socket socket = new Socket(ipAddress, port);
-                 ObjectOutputStream outputStream = new ObjectOutputStream(socket.getOutputStream());
-                 ObjectInputStream inputStream = new ObjectInputStream(socket.getInputStream())) {
-
-                outputStream.writeObject("RECOVER_SERVER");
-                String response = (String) inputStream.readObject();
-                int peerPort = inputStream.readInt();
-                Map<String, String> receivedFileChecksums = (Map<String, String>) inputStream.readObject();
-                if ("RECOVER_SERVER_RESPONSE".equals(response)) {
-                    // Handle received data
-                    receiveFileList(ipAddress, peerPort, receivedFileChecksums);
-
-                    // Send the success message back
-                    outputStream.writeObject("RECOVER_LIST_SUCCESS");
-                    peerInfoReceived.add(peerAddress);
+    // Report of the last recovery broadcast, or null if there was none
+    public RecoveryReport getLastRecovery() {
+        return lastRecovery;
+    }
+
+    // The end of a recovery broadcast: responses are applied under the read lock only until the cutoff has
+    // passed, and passing it waits for the responses being applied
+    private static class RecoveryCutoff {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private boolean passed;
+
+        private void pass() {
+            lock.writeLock().lock();
+            passed = true;
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Asks every known peer for its file list, RECOVERY_PARALLELISM peers at a time, and returns once all have
+    // answered or RECOVERY_TIMEOUT_SECONDS have passed. Peers that did not answer by then are forgotten, and
+    // their answers arriving later are ignored
+    public RecoveryReport broadcastRequest() {
+        long startTime = System.nanoTime();
+        long deadline = startTime + TimeUnit.SECONDS.toNanos(RECOVERY_TIMEOUT_SECONDS);
+        List<String> peers = new ArrayList<>(knownPeers);
+        Queue<String> pendingPeers = new ConcurrentLinkedQueue<>(peers);
+        peerInfoReceived.clear();
+
+        // A fixed number of workers take peers off the queue, so a large swarm never needs a thread per peer
+        int workers = Math.min(RECOVERY_PARALLELISM, peers.size());
+        ExecutorService recoveryExecutor = ThreadPools.newTaskExecutor();
+        CountDownLatch done = new CountDownLatch(workers);
+        RecoveryCutoff cutoff = new RecoveryCutoff();
+        for (int i = 0; i < workers; i++) {
+            recoveryExecutor.submit(() -> {
+                try {
+                    String peerAddress;
+                    while ((peerAddress = pendingPeers.poll()) != null && System.nanoTime() < deadline) {
+                        recoverPeer(peerAddress, deadline, cutoff);
+                    }
+                } finally {
+                    done.countDown();
                 }
+            });
+        }
+        try {
+            done.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            // Workers still waiting on a peer give up at the deadline through their socket timeouts; whatever
+            // they receive after the cutoff is dropped, so the removal below sees a final set of responders
+            recoveryExecutor.shutdownNow();
+            cutoff.pass();
+        }
 
-            } catch (IOException | ClassNotFoundException e) {
-                e.printStackTrace();
+        // Remove unresponsive peers from the list of known peers
+        int responders = 0;
+        for (String peerAddress : peers) {
+            if (peerInfoReceived.contains(peerAddress)) {
+                responders++;
+            } else {
+                System.out.println("Peer " + peerAddress + " did not respond to RECOVER_SERVER request");
+                knownPeers.remove(peerAddress);
+                fileRegistry.removePeer(peerAddress);
             }
-            timeoutExecutor.schedule(() -> {
-                // Check if all known peers have responded
-                // If not remove unresponsive peers from the list of known peers
-                if (!peerInfoReceived.contains(peerAddress)) {
-                    System.out.println("Peer " + peerAddress + " did not respond to RECOVER_SERVER request");
-                    knownPeers.remove(peerAddress);
-                    fileRegistry.values().forEach(fileInfo -> fileInfo.peers.remove(peerAddress));
+        }
+        RecoveryReport report = new RecoveryReport(peers.size(), responders,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        lastRecovery = report;
+        System.out.println("Recovered from " + responders + " of " + peers.size() + " peers in "
+                + report.getDurationMillis() + " ms");
+        return report;
+    }
+
+    private void recoverPeer(String peerAddress, long deadline, RecoveryCutoff cutoff) {
+        String[] addressParts = peerAddress.split(":");
+        String ipAddress = addressParts[0];
+        int port = Integer.parseInt(addressParts[1]);
+        System.out.println("Sending RECOVER_SERVER request to " + peerAddress);
+        // Send RECOVER_SERVER request to the peer; connecting and reading both end at the deadline
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(ipAddress, port), remainingMillis(deadline));
+            socket.setSoTimeout(remainingMillis(deadline));
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            // The request carries the version of the peer's list held here, so that an up-to-date peer
+            // only sends what changed since
+            long version = fileRegistry.getVersion(ipAddress, port);
+            Protocol.writeMessage(outputStream, Protocol.RECOVER_SERVER, payload -> payload.writeLong(version));
+            Protocol.Message response = Protocol.readMessage(inputStream, Protocol.RECOVER_SERVER_RESPONSE);
+            // Handle received data, unless the broadcast already gave up on this peer
+            cutoff.lock.readLock().lock();
+            try {
+                if (cutoff.passed) {
+                    System.out.println("Ignoring late RECOVER_SERVER response from " + peerAddress);
+                    return;
                 }
-            }, RECOVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                receiveRecoveryResponse(ipAddress, response.payload);
+                peerInfoReceived.add(peerAddress);
+            } finally {
+                cutoff.lock.readLock().unlock();
+            }
+
+            // Send the success message back
+            Protocol.writeMessage(outputStream, Protocol.RECOVER_LIST_SUCCESS);
+
+        } catch (IOException e) {
+            System.out.println("RECOVER_SERVER request to " + peerAddress + " failed: " + e.getMessage());
+        }
+    }
+
+    // Socket timeouts of 0 mean no timeout, so at least 1 ms is left
+    private static int remainingMillis(long deadline) {
+        return (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    // Returns the port of the peer that sent the response
+    private int receiveRecoveryResponse(String ipAddress, DataInputStream payload) throws IOException {
+        int peerPort = payload.readInt();
+        byte kind = payload.readByte();
+        if (kind == Protocol.RECOVER_DELTA) {
+            long baseVersion = payload.readLong();
+            Map<String, String> addedFiles = Protocol.readFileList(payload);
+            List<String> removedFiles = Protocol.readNameList(payload);
+            if (!addedFiles.isEmpty() || !removedFiles.isEmpty()) {
+                receiveFileListDelta(ipAddress, peerPort, baseVersion, addedFiles, removedFiles);
+            }
+            registerPeer(ipAddress, peerPort);
+        } else {
+            receiveFileList(ipAddress, peerPort, FileRegistry.UNVERSIONED, Protocol.readFileList(payload));
         }
+        return peerPort;
+    }
+
+    private void restoreState() {
+        // Rebuild the registry from the log, then log every change to it
+        Path directory = stateDirectory;
+        if (directory == null || registryLog != null) {
+            return;
+        }
+        RegistryLog log = new RegistryLog(directory);
+        try {
+            log.load(fileRegistry);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            fileRegistry.forEachPeer((ipAddress, peerPort, version, fileList) -> registerPeer(ipAddress, peerPort));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        fileRegistry.setChangeListener(log);
+        registryLog = log;
+        snapshotTask = timeoutExecutor.scheduleWithFixedDelay(() -> {
+            if (log.getRecordsSinceSnapshot() > 0) {
+                snapshot();
+            }
+        }, SNAPSHOT_INTERVAL_SECONDS, SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void closeState() {
+        RegistryLog log = registryLog;
+        if (log == null) {
+            return;
+        }
+        snapshotTask.cancel(false);
+        // Leave a compacted snapshot behind so the next start replays no log
+        snapshot();
+        fileRegistry.setChangeListener(null);
+        log.close();
+        registryLog = null;
     }
 
     // Initiate the recovery process
     private void recoverServer() {
+        if (registryLog != null) {
+            // The registry was restored from disk, so requests are served right away while peers report only
+            // what changed since the versions restored
+            System.out.println("Reconciling restored state with peers...");
+            ThreadPools.newThread(this::broadcastRequest, "recovery").start();
+            return;
+        }
         System.out.println("Recovering server state...");
         broadcastRequest();
-        try {
-            TimeUnit.SECONDS.sleep(RECOVERY_TIMEOUT_SECONDS);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
     }
 
     public static void main(String[] args) {
         // if no arguments are provided, start the server on port 8080, else use the provided port
         int port = args.length == 0 ? 8080 : Integer.parseInt(args[0]);
         TrackingServer trackingServer = new TrackingServer(port);
+        // An optional second argument is the directory the registry is persisted in
+        if (args.length > 1) {
+            trackingServer.setStateDirectory(args[1]);
+        }
         // Start the tracking server in a separate thread
         new Thread(trackingServer::start).start();
     }
@@ -1,23 +1,78 @@
 package edu.umn.utils;
 
-import java.nio.file.Files;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 
 public class Checksum {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    // One direct buffer per thread, reused for every file so memory use does not grow with file size
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
     public static String computeChecksum(Path filePath) throws Exception {
-        byte[] fileBytes = Files.readAllBytes(filePath);
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        byte[] checksum = md.digest(fileBytes);
-        return bytesToHex(checksum);
+        MessageDigest md = newDigest();
+        updateDigest(md, filePath, Long.MAX_VALUE);
+        return bytesToHex(md.digest());
+    }
+
+    // Feeds the first length bytes of the file (or the whole file if shorter) into the digest
+    public static void updateDigest(MessageDigest md, Path filePath, long length) throws IOException {
+        if (length <= 0) {
+            return;
+        }
+        ByteBuffer buffer = BUFFER.get();
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long remaining = length;
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+            int bytesRead;
+            while (remaining > 0 && (bytesRead = channel.read(buffer)) != -1) {
+                remaining -= bytesRead;
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+            }
+        }
+    }
+
+    // Returns a fresh SHA-256 digest for incremental hashing
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String bytesToHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(hex);
     }
 
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02x", b));
+    public static byte[] hexToBytes(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid checksum: " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid checksum: " + hex);
+            }
+            bytes[i] = (byte) ((high << 4) | low);
         }
-        return sb.toString();
+        return bytes;
     }
 }
@@ -0,0 +1,99 @@
+package edu.umn.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+// On-disk cache of file checksums keyed by relative path, size and modification time
+public class ChecksumIndex {
+    private final Path indexPath;
+    private final Map<String, Entry> entries;
+
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String checksum;
+
+        private Entry(long size, long lastModified, String checksum) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+    }
+
+    public ChecksumIndex(Path indexPath) {
+        this.indexPath = indexPath;
+        this.entries = new ConcurrentHashMap<>();
+        readIndexFile();
+    }
+
+    // The index of a shared directory is stored next to it, e.g. files/peer1 -> files/peer1.checksums
+    public static ChecksumIndex forDirectory(String fileDirectory) {
+        Path directory = Path.of(fileDirectory).toAbsolutePath().normalize();
+        return new ChecksumIndex(directory.resolveSibling(directory.getFileName() + ".checksums"));
+    }
+
+    private void readIndexFile() {
+        // Each line is size,lastModified,checksum,path; the path goes last because it may contain commas
+        try (BufferedReader br = Files.newBufferedReader(indexPath)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(",", 4);
+                if (parts.length == 4) {
+                    entries.put(parts[3], new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // No index yet, every file will be hashed once
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Ignoring unreadable checksum index " + indexPath + ": " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    // Returns the cached checksum, or null if the file is unknown or changed since it was hashed
+    public String getChecksum(String path, long size, long lastModified) {
+        Entry entry = entries.get(path);
+        if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+            return null;
+        }
+        return entry.checksum;
+    }
+
+    public void putChecksum(String path, long size, long lastModified, String checksum) {
+        entries.put(path, new Entry(size, lastModified, checksum));
+    }
+
+    // Drop entries of files that no longer exist
+    public void retainAll(Set<String> paths) {
+        entries.keySet().retainAll(paths);
+    }
+
+    public synchronized void save() {
+        // Write to a temporary file first so a crash never leaves a truncated index behind
+        Path tempPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath)) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry value = entry.getValue();
+                writer.write(value.size + "," + value.lastModified + "," + value.checksum + "," + entry.getKey());
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
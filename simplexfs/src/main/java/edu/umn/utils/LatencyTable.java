@@ -4,22 +4,93 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 
 
+// Latencies between pairs of nodes, in an open-addressed hash table of primitive arrays keyed by the port pair.
+// Latency is symmetric, so each pair is stored once under (lower port, higher port).
+// Reads never lock: writers are serialized, publish a new pair by writing its value before its key, and
+// replace a full table by publishing a larger copy through a volatile field.
 public class LatencyTable {
-    private final Map<String, Integer> latencyMap;
+    private static final long EMPTY = -1L;
+    private static final int MISSING = Integer.MAX_VALUE;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private static class Table {
+        private final long[] keys;
+        private final int[] values;
+        private final int mask;
+        private final int shift;
+        // Slots in use, including pairs whose latency was removed; guarded by the LatencyTable
+        private int size;
+
+        private Table(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            values = new int[capacity];
+            mask = capacity - 1;
+            shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        }
+
+        private int slot(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+        }
+
+        private int get(long key) {
+            for (int i = slot(key); ; i = (i + 1) & mask) {
+                long k = (long) KEYS.getAcquire(keys, i);
+                if (k == key) {
+                    return (int) VALUES.getAcquire(values, i);
+                }
+                if (k == EMPTY) {
+                    return MISSING;
+                }
+            }
+        }
+
+        // Returns false if the pair is new and the table is too full to take it
+        private boolean put(long key, int latency) {
+            int i = slot(key);
+            for (; ; i = (i + 1) & mask) {
+                long k = keys[i];
+                if (k == key) {
+                    VALUES.setRelease(values, i, latency);
+                    return true;
+                }
+                if (k == EMPTY) {
+                    break;
+                }
+            }
+            // Keep the load factor at most 3/4 so that probes stay short
+            if ((size + 1) * 4L > keys.length * 3L) {
+                return false;
+            }
+            // A reader that sees the key also sees the value written before it
+            VALUES.setRelease(values, i, latency);
+            KEYS.setRelease(keys, i, key);
+            size++;
+            return true;
+        }
+    }
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
 
     public LatencyTable(String latencyFilePath) {
-        this.latencyMap = new HashMap<>();
         readLatencyFile(latencyFilePath);
     }
 
+    // An empty table
+    public LatencyTable() {
+    }
 
-
-    public void readLatencyFile(String latencyFilePath) {
+    public synchronized void readLatencyFile(String latencyFilePath) {
         try (BufferedReader br = new BufferedReader(new FileReader(latencyFilePath))) {
             String line;
             while ((line = br.readLine()) != null) {
@@ -28,9 +99,8 @@ public class LatencyTable {
                     int node1 = Integer.parseInt(parts[0]);
                     int node2 = Integer.parseInt(parts[1]);
                     int latency = Integer.parseInt(parts[2]);
-                    // Store latency values in both directions
-                    latencyMap.put(node1 + "-" + node2, latency);
-                    latencyMap.put(node2 + "-" + node1, latency);
+                    // One entry serves both directions
+                    put(pairKey(node1, node2), latency);
                 }
             }
         } catch (IOException e) {
@@ -40,23 +110,59 @@ public class LatencyTable {
 
     // Add or update latency between current peer and another peer
     public synchronized void addOrUpdateLatency(int node1, int node2, int latency) {
-        String key = node1 + "-" + node2;
-        latencyMap.put(key, latency);
-        latencyMap.put(node2 + "-" + node1, latency);
+        put(pairKey(node1, node2), latency);
     }
 
 
     // Get latency between two ports
-    public synchronized int getLatency(int node1, int node2) {
-        String key = node1 + "-" + node2;
-        return latencyMap.getOrDefault(key, Integer.MAX_VALUE);
+    public int getLatency(int node1, int node2) {
+        return table.get(pairKey(node1, node2));
     }
 
     // Remove latency entry for a peer
     public synchronized void removeLatency(int node1, int node2) {
-        String key = node1 + "-" + node2;
-        latencyMap.remove(key);
-        latencyMap.remove(node2 + "-" + node1);
+        // The slot stays in place so that probes for other pairs still pass it
+        Table current = table;
+        if (current.get(pairKey(node1, node2)) != MISSING) {
+            current.put(pairKey(node1, node2), MISSING);
+        }
+    }
+
+    // Number of pairs with a latency
+    public synchronized int size() {
+        Table current = table;
+        int count = 0;
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.keys[i] != EMPTY && current.values[i] != MISSING) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void put(long key, int latency) {
+        Table current = table;
+        while (!current.put(key, latency)) {
+            current = grow(current);
+            table = current;
+        }
+    }
+
+    // A copy of the table with twice the capacity; it is filled before it is published
+    private static Table grow(Table current) {
+        Table larger = new Table(current.keys.length * 2);
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.keys[i] != EMPTY && current.values[i] != MISSING) {
+                larger.put(current.keys[i], current.values[i]);
+            }
+        }
+        return larger;
+    }
+
+    private static long pairKey(int node1, int node2) {
+        int low = Math.min(node1, node2);
+        int high = Math.max(node1, node2);
+        return ((long) low << 32) | (high & 0xffffffffL);
     }
 
 
@@ -77,7 +183,19 @@ public class LatencyTable {
         }
     }
 
-    public Map<String, Integer> getLatencyMap() {
+    // A copy of the latencies keyed by "node1-node2", in both directions
+    public synchronized Map<String, Integer> getLatencyMap() {
+        Table current = table;
+        Map<String, Integer> latencyMap = new HashMap<>();
+        for (int i = 0; i < current.keys.length; i++) {
+            long key = current.keys[i];
+            if (key != EMPTY && current.values[i] != MISSING) {
+                int node1 = (int) (key >>> 32);
+                int node2 = (int) key;
+                latencyMap.put(node1 + "-" + node2, current.values[i]);
+                latencyMap.put(node2 + "-" + node1, current.values[i]);
+            }
+        }
         return latencyMap;
     }
 
@@ -94,5 +212,3 @@ public class LatencyTable {
         System.out.println(latencyTable.getLatencyMap());
     }
 }
-
-
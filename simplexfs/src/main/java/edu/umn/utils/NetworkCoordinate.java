@@ -0,0 +1,140 @@
+package edu.umn.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+// A Vivaldi network coordinate (Dabek et al., SIGCOMM 2004): a point in a low-dimensional Euclidean space plus a
+// height for the access link, placed so that the distance between two coordinates predicts their round-trip time
+// in ms. Each node keeps only its own coordinate and moves it after every measured RTT, so predicting the latency
+// to any node costs O(1) memory per node instead of a table of every pair.
+// The error is the node's confidence in its coordinate, from 0 (exact) to 1 (no samples yet). Coordinates are
+// immutable; update returns the moved coordinate.
+public class NetworkCoordinate {
+    public static final int DIMENSIONS = 3;
+    public static final double INITIAL_ERROR = 1.0;
+    // Constants from the paper: how fast the error and the coordinate follow new samples
+    private static final double ERROR_GAIN = 0.25;
+    private static final double POSITION_GAIN = 0.25;
+    private static final double MIN_HEIGHT = 0.01;
+    private static final double MIN_ERROR = 0.01;
+    // Samples below this are clamped, so a round trip on one host does not divide by zero
+    private static final double MIN_RTT_MILLIS = 0.01;
+
+    private final double[] position;
+    private final double height;
+    private final double error;
+
+    private NetworkCoordinate(double[] position, double height, double error) {
+        this.position = position;
+        this.height = height;
+        this.error = error;
+    }
+
+    // Where every node starts
+    public static NetworkCoordinate origin() {
+        return new NetworkCoordinate(new double[DIMENSIONS], MIN_HEIGHT, INITIAL_ERROR);
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    public double getError() {
+        return error;
+    }
+
+    // Predicted round-trip time in ms: the distance in the plane plus both access links
+    public double distanceTo(NetworkCoordinate other) {
+        return planeDistance(other) + height + other.height;
+    }
+
+    // The coordinate moved after measuring rttMillis to the node at remote: it moves toward remote if the
+    // prediction was too long and away from it if too short, by more the more confident remote is relative to us
+    public NetworkCoordinate update(NetworkCoordinate remote, double rttMillis, Random random) {
+        double rtt = Math.max(rttMillis, MIN_RTT_MILLIS);
+        double weight = error / (error + remote.error);
+        double predicted = distanceTo(remote);
+        double sampleError = Math.abs(predicted - rtt) / rtt;
+        double newError = sampleError * ERROR_GAIN * weight + error * (1 - ERROR_GAIN * weight);
+        newError = Math.max(MIN_ERROR, Math.min(INITIAL_ERROR, newError));
+
+        // Unit vector from remote to us, with the heights as one more axis; two nodes at the same point in the
+        // plane are pushed apart in a random direction
+        double force = POSITION_GAIN * weight * (rtt - predicted);
+        double[] direction = new double[DIMENSIONS];
+        double length = planeDistance(remote);
+        double planeLength = length;
+        if (length > 0) {
+            for (int i = 0; i < DIMENSIONS; i++) {
+                direction[i] = (position[i] - remote.position[i]) / length;
+            }
+        } else {
+            double norm = 0;
+            for (int i = 0; i < DIMENSIONS; i++) {
+                direction[i] = random.nextGaussian();
+                norm += direction[i] * direction[i];
+            }
+            norm = Math.sqrt(norm);
+            for (int i = 0; i < DIMENSIONS; i++) {
+                direction[i] /= norm;
+            }
+            planeLength = 1;
+        }
+        double total = planeLength + height + remote.height;
+        double[] newPosition = new double[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            newPosition[i] = position[i] + force * direction[i] * planeLength / total;
+        }
+        double newHeight = Math.max(MIN_HEIGHT, height + force * (height + remote.height) / total);
+        return new NetworkCoordinate(newPosition, newHeight, newError);
+    }
+
+    private double planeDistance(NetworkCoordinate other) {
+        double sum = 0;
+        for (int i = 0; i < DIMENSIONS; i++) {
+            double delta = position[i] - other.position[i];
+            sum += delta * delta;
+        }
+        return Math.sqrt(sum);
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        for (double value : position) {
+            out.writeDouble(value);
+        }
+        out.writeDouble(height);
+        out.writeDouble(error);
+    }
+
+    public static NetworkCoordinate read(DataInputStream in) throws IOException {
+        double[] position = new double[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            position[i] = in.readDouble();
+        }
+        double height = in.readDouble();
+        double error = in.readDouble();
+        return new NetworkCoordinate(position, height, error);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof NetworkCoordinate)) {
+            return false;
+        }
+        NetworkCoordinate other = (NetworkCoordinate) o;
+        return Arrays.equals(position, other.position) && height == other.height && error == other.error;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(position) * 31 + Double.hashCode(height) * 17 + Double.hashCode(error);
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkCoordinate{position=" + Arrays.toString(position) + ", height=" + height + ", error=" + error + '}';
+    }
+}
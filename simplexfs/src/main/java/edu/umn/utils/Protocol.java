@@ -0,0 +1,328 @@
+package edu.umn.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+// Binary wire protocol shared by peers and the tracking server.
+// Every message is framed as: version (1 byte), opcode (1 byte), request id (4 bytes), payload length (4 bytes), payload.
+// Responses carry the id of their request, so several requests can be in flight on one connection.
+// A FILE_DATA response is followed by FILE_CHUNK frames holding the file contents.
+// A peer's file list is versioned: UPDATE_LIST sends the whole list with its version, UPDATE_LIST_DELTA sends the
+// files added and removed since a base version, and the tracking server answers RESYNC_REQUIRED if its version
+// of the list differs from that base.
+// Peers piggyback their load index on LOAD, PONG and FILE_DATA responses. After SUBSCRIBE_LOAD a peer also
+// pushes LOAD frames with request id 0 whenever its load changes.
+// Peers report their network coordinate with UPDATE_COORDINATE, and peer lists carry each peer's last reported
+// coordinate, so a peer can predict its latency to peers it never measured.
+public class Protocol {
+    // Bumped with every incompatible change to a frame or payload, so that a node running an older format rejects
+    // the frame instead of misreading it:
+    // 2: request ids and multiplexed connections
+    // 3: versioned UPDATE_LIST and UPDATE_LIST_DELTA
+    // 4: RECOVER_SERVER carries the list version the tracking server holds
+    // 5: peer list entries carry network coordinates; UPDATE_COORDINATE
+    public static final byte VERSION = 5;
+    public static final int HEADER_SIZE = 10;
+    // File contents are split into frames of at most this size so that other responses can interleave
+    public static final int MAX_CHUNK_SIZE = 64 * 1024;
+    // Largest payload accepted from the network
+    public static final int MAX_PAYLOAD_SIZE = 64 * 1024 * 1024;
+
+    // Requests
+    public static final byte FIND = 0x01;
+    public static final byte UPDATE_LIST = 0x02;
+    public static final byte RECOVER_SERVER = 0x03;
+    public static final byte RECOVER_SERVER_RESPONSE = 0x04;
+    public static final byte GET_LOAD = 0x05;
+    public static final byte DOWNLOAD = 0x06;
+    public static final byte PING = 0x07;
+    public static final byte SUBSCRIBE_LOAD = 0x08;
+    public static final byte FIND_BATCH = 0x09;
+    public static final byte UPDATE_LIST_DELTA = 0x0a;
+    public static final byte UPDATE_COORDINATE = 0x0b;
+
+    // Responses
+    public static final byte FIND_RESULT = (byte) 0x81;
+    public static final byte UPDATE_LIST_SUCCESS = (byte) 0x82;
+    public static final byte RECOVER_LIST_SUCCESS = (byte) 0x84;
+    public static final byte LOAD = (byte) 0x85;
+    public static final byte FILE_DATA = (byte) 0x86;
+    public static final byte PONG = (byte) 0x87;
+    public static final byte FILE_CHUNK = (byte) 0x88;
+    public static final byte FIND_BATCH_RESULT = (byte) 0x89;
+    public static final byte RESYNC_REQUIRED = (byte) 0x8a;
+    public static final byte UPDATE_COORDINATE_SUCCESS = (byte) 0x8b;
+    public static final byte ERROR = (byte) 0xff;
+
+    // A RECOVER_SERVER_RESPONSE holds either the peer's whole list, or the changes since the version the tracking
+    // server already holds, which the RECOVER_SERVER request carries
+    public static final byte RECOVER_FULL = 0;
+    public static final byte RECOVER_DELTA = 1;
+
+    // A FIND_BATCH request selects files either by name or by name prefix
+    public static final byte BATCH_BY_NAME = 0;
+    public static final byte BATCH_BY_PREFIX = 1;
+
+    // Request id of frames that answer no request, such as pushed loads
+    public static final int UNSOLICITED = 0;
+
+    @FunctionalInterface
+    public interface PayloadWriter {
+        void write(DataOutputStream payload) throws IOException;
+    }
+
+    public static class Message {
+        public final byte opcode;
+        public final int requestId;
+        public final byte[] body;
+        public final DataInputStream payload;
+
+        public Message(byte opcode, int requestId, byte[] body) {
+            this.opcode = opcode;
+            this.requestId = requestId;
+            this.body = body;
+            this.payload = new DataInputStream(new ByteArrayInputStream(body));
+        }
+    }
+
+    // Frames are written under the stream's lock so that concurrent responses never interleave
+    public static void writeMessage(DataOutputStream out, int requestId, byte opcode, PayloadWriter writer) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        if (writer != null) {
+            writer.write(new DataOutputStream(buffer));
+        }
+        synchronized (out) {
+            writeHeader(out, requestId, opcode, buffer.size());
+            buffer.writeTo(out);
+            out.flush();
+        }
+    }
+
+    public static void writeMessage(DataOutputStream out, byte opcode, PayloadWriter writer) throws IOException {
+        writeMessage(out, 0, opcode, writer);
+    }
+
+    public static void writeMessage(DataOutputStream out, byte opcode) throws IOException {
+        writeMessage(out, 0, opcode, null);
+    }
+
+    // Writes only a frame header; the caller writes the payload itself while holding the stream's lock
+    public static void writeHeader(DataOutputStream out, int requestId, byte opcode, int length) throws IOException {
+        out.writeByte(VERSION);
+        out.writeByte(opcode);
+        out.writeInt(requestId);
+        out.writeInt(length);
+    }
+
+    public static void writeError(DataOutputStream out, int requestId, String error) throws IOException {
+        writeMessage(out, requestId, ERROR, payload -> payload.writeUTF(error));
+    }
+
+    public static Message readMessage(DataInputStream in) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported protocol version: " + version);
+        }
+        byte opcode = in.readByte();
+        int requestId = in.readInt();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD_SIZE) {
+            throw new IOException("Invalid payload length: " + length);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return new Message(opcode, requestId, body);
+    }
+
+    // Reads a response and checks that it has the expected opcode
+    public static Message readMessage(DataInputStream in, byte expectedOpcode) throws IOException {
+        return checkOpcode(readMessage(in), expectedOpcode);
+    }
+
+    public static Message checkOpcode(Message message, byte expectedOpcode) throws IOException {
+        if (message.opcode == ERROR) {
+            throw new IOException("Remote error: " + message.payload.readUTF());
+        }
+        if (message.opcode != expectedOpcode) {
+            throw new IOException("Unexpected opcode: " + message.opcode);
+        }
+        return message;
+    }
+
+    // SHA-256 checksums travel as 32 raw bytes instead of 64 hex characters
+    public static void writeChecksum(DataOutputStream out, String checksum) throws IOException {
+        byte[] bytes = Checksum.hexToBytes(checksum);
+        out.writeByte(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readChecksum(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedByte()];
+        in.readFully(bytes);
+        return Checksum.bytesToHex(bytes);
+    }
+
+    public static void writeFileList(DataOutputStream out, Map<String, String> fileList) throws IOException {
+        // Copy first so that a concurrently modified map is written consistently
+        Map<String, String> snapshot = new HashMap<>(fileList);
+        out.writeInt(snapshot.size());
+        for (Map.Entry<String, String> entry : snapshot.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeChecksum(out, entry.getValue());
+        }
+    }
+
+    public static Map<String, String> readFileList(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<String, String> fileList = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            String filename = in.readUTF();
+            fileList.put(filename, readChecksum(in));
+        }
+        return fileList;
+    }
+
+    public static void writeNameList(DataOutputStream out, Collection<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    public static List<String> readNameList(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            names.add(in.readUTF());
+        }
+        return names;
+    }
+
+    // A peer as the tracking server lists it
+    public interface PeerLocation {
+        String getIpAddress();
+
+        int getPort();
+
+        // Last coordinate the peer reported, or null
+        NetworkCoordinate getCoordinate();
+    }
+
+    // The holders of one file and its checksum, as the tracking server writes them
+    public static class PeerList {
+        public static final PeerList EMPTY = new PeerList(null, Collections.emptyList());
+
+        public final String checksum;
+        public final List<? extends PeerLocation> peers;
+
+        public PeerList(String checksum, List<? extends PeerLocation> peers) {
+            this.checksum = checksum;
+            this.peers = peers;
+        }
+    }
+
+    // A holder of a file as a peer reads it from a peer list
+    public static class PeerEntry implements PeerLocation {
+        private final String ipAddress;
+        private final int port;
+        private final String checksum;
+        private final NetworkCoordinate coordinate;
+
+        public PeerEntry(String ipAddress, int port, String checksum, NetworkCoordinate coordinate) {
+            this.ipAddress = ipAddress;
+            this.port = port;
+            this.checksum = checksum;
+            this.coordinate = coordinate;
+        }
+
+        @Override
+        public String getIpAddress() {
+            return ipAddress;
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+
+        @Override
+        public NetworkCoordinate getCoordinate() {
+            return coordinate;
+        }
+
+        // The ip:port:checksum form peers pass around
+        @Override
+        public String toString() {
+            return ipAddress + ":" + port + ":" + checksum;
+        }
+    }
+
+    // A peer list is sent as the shared checksum followed by each peer's ip, port and, if it reported one, its
+    // network coordinate
+    public static void writePeerList(DataOutputStream out, PeerList peerList) throws IOException {
+        out.writeInt(peerList.peers.size());
+        if (peerList.peers.isEmpty()) {
+            return;
+        }
+        writeChecksum(out, peerList.checksum);
+        for (PeerLocation peer : peerList.peers) {
+            out.writeUTF(peer.getIpAddress());
+            out.writeShort(peer.getPort());
+            NetworkCoordinate coordinate = peer.getCoordinate();
+            out.writeBoolean(coordinate != null);
+            if (coordinate != null) {
+                coordinate.write(out);
+            }
+        }
+    }
+
+    public static List<PeerEntry> readPeerList(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<PeerEntry> peerList = new ArrayList<>();
+        if (size == 0) {
+            return peerList;
+        }
+        String checksum = readChecksum(in);
+        for (int i = 0; i < size; i++) {
+            String ipAddress = in.readUTF();
+            int port = in.readUnsignedShort();
+            NetworkCoordinate coordinate = in.readBoolean() ? NetworkCoordinate.read(in) : null;
+            peerList.add(new PeerEntry(ipAddress, port, checksum, coordinate));
+        }
+        return peerList;
+    }
+
+    // The peer lists of several files: the number of files, then each filename followed by its peer list
+    public static void writeFileLocations(DataOutputStream out, Map<String, PeerList> locations) throws IOException {
+        out.writeInt(locations.size());
+        for (Map.Entry<String, PeerList> entry : locations.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writePeerList(out, entry.getValue());
+        }
+    }
+
+    public static Map<String, List<PeerEntry>> readFileLocations(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<String, List<PeerEntry>> locations = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            String filename = in.readUTF();
+            locations.put(filename, readPeerList(in));
+        }
+        return locations;
+    }
+}
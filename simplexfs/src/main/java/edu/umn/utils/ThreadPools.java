@@ -0,0 +1,53 @@
+package edu.umn.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// Creates the threads that serve connections, probe peers and broadcast recovery requests.
+// With -Dsimplexfs.virtualThreads=true (set by the virtual-threads Maven profile) they are virtual threads,
+// so that a blocked connection costs a small heap object instead of a platform thread and its stack.
+// Virtual threads are looked up reflectively because the default build targets Java 11; on a JDK without
+// them the platform thread pools are used.
+public class ThreadPools {
+    public static final String VIRTUAL_THREADS_PROPERTY = "simplexfs.virtualThreads";
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)
+            ? createVirtualThreadFactory() : null;
+
+    public static boolean isVirtualThreadsEnabled() {
+        return VIRTUAL_THREAD_FACTORY != null;
+    }
+
+    // One thread per task: a virtual thread each, or a cached pool of platform threads
+    public static ExecutorService newTaskExecutor() {
+        if (VIRTUAL_THREAD_FACTORY != null) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, VIRTUAL_THREAD_FACTORY);
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    // A dedicated daemon thread for a long-running task, such as reading one connection
+    public static Thread newThread(Runnable task, String name) {
+        Thread thread = VIRTUAL_THREAD_FACTORY != null ? VIRTUAL_THREAD_FACTORY.newThread(task) : new Thread(task);
+        thread.setName(name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException | ClassNotFoundException e) {
+            System.out.println("Virtual threads need Java 21 or newer; using platform threads");
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.utils.ChecksumIndex;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static edu.umn.utils.Checksum.computeChecksum;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestChecksumIndex {
+    private Path directory;
+    private String latencyFilePath;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        latencyFilePath = resourceUrl.getPath() + "/latency.txt";
+        directory = Files.createTempDirectory("indexed");
+        Files.writeString(directory.resolve("indexed.txt"), "indexed content");
+    }
+
+    @Test
+    public void testChecksumIndex() throws Exception {
+        Path file = directory.resolve("indexed.txt");
+        String checksum = computeChecksum(file);
+
+        // Initializing a peer stores the checksum next to the shared directory
+        PeerNode peerNode = new PeerNode(directory.toString(), 8001, latencyFilePath, "localhost", 8080);
+        peerNode.initialize();
+        assertEquals(checksum, peerNode.getFileChecksums().get("indexed.txt"));
+        Path indexPath = directory.resolveSibling(directory.getFileName() + ".checksums");
+        assertTrue(Files.exists(indexPath), "Checksum index was not written");
+
+        // A reloaded index serves the checksum while size and modification time are unchanged
+        long size = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        ChecksumIndex index = new ChecksumIndex(indexPath);
+        assertEquals(checksum, index.getChecksum("indexed.txt", size, lastModified));
+        assertNull(index.getChecksum("indexed.txt", size + 1, lastModified));
+        assertNull(index.getChecksum("indexed.txt", size, lastModified + 1000));
+
+        // A modified file is rehashed on the next initialization
+        Files.writeString(file, "modified content");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified + 1000));
+        PeerNode restartedPeerNode = new PeerNode(directory.toString(), 8001, latencyFilePath, "localhost", 8080);
+        restartedPeerNode.initialize();
+        assertEquals(computeChecksum(file), restartedPeerNode.getFileChecksums().get("indexed.txt"));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(directory.resolve("indexed.txt"));
+        Files.deleteIfExists(directory.resolveSibling(directory.getFileName() + ".checksums"));
+        Files.deleteIfExists(directory);
+    }
+}
@@ -0,0 +1,125 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.server.TrackingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static edu.umn.utils.Checksum.computeChecksum;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestConcurrentUpload {
+    private static final String FILE_NAME = "load32Mb.db";
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+    private TrackingServer server;
+    private PeerNode[] peerNodes;
+    private String resourcePath;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        resourcePath = resourceUrl.getPath();
+        String latencyFilePath = resourcePath + "/latency.txt"; // Update this path as needed
+
+        // Generate a large file on peer1 so that uploads overlap in time
+        byte[] content = new byte[FILE_SIZE];
+        new Random(5105).nextBytes(content);
+        Files.write(Path.of(resourcePath + "/peer1", FILE_NAME), content);
+
+        // Start the tracking server
+        server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        // Allow time for the server to start accepting connections
+        Thread.sleep(1000);
+
+        // Initialize peer nodes using the test resources directory
+        peerNodes = new PeerNode[5];
+        for (int i = 0; i < peerNodes.length; i++) {
+            peerNodes[i] = new PeerNode(resourcePath + "/peer" + (i + 1), 8001 + i, latencyFilePath, "localhost", 8080);
+            peerNodes[i].initialize();
+            PeerNode peerNode = peerNodes[i];
+            new Thread(peerNode::start).start();
+        }
+        // Allow time for the peer nodes to start
+        Thread.sleep(1000);
+    }
+
+    @Test
+    public void testConcurrentUpload() throws Exception {
+        peerNodes[0].updateFileList();
+
+        // Peers 2-5 download the same file from peer1 at the same time
+        int downloaders = peerNodes.length - 1;
+        CountDownLatch startSignal = new CountDownLatch(1);
+        ExecutorService downloadExecutor = Executors.newFixedThreadPool(downloaders);
+        for (int i = 1; i < peerNodes.length; i++) {
+            PeerNode peerNode = peerNodes[i];
+            downloadExecutor.submit(() -> {
+                startSignal.await();
+                peerNode.downloadFile(FILE_NAME, "localhost", 8001);
+                return null;
+            });
+        }
+
+        // Sample the load index of peer1 while the uploads are running
+        AtomicBoolean sampling = new AtomicBoolean(true);
+        AtomicInteger maxLoad = new AtomicInteger(0);
+        Thread sampler = new Thread(() -> {
+            while (sampling.get()) {
+                maxLoad.accumulateAndGet(peerNodes[0].getLoad(), Math::max);
+            }
+        });
+        sampler.start();
+
+        long startTime = System.nanoTime();
+        startSignal.countDown();
+        downloadExecutor.shutdown();
+        assertTrue(downloadExecutor.awaitTermination(60, TimeUnit.SECONDS), "Downloads did not finish in time");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        sampling.set(false);
+        sampler.join();
+
+        double megabytes = (double) downloaders * FILE_SIZE / (1024 * 1024);
+        System.out.println("Served " + megabytes + " MB to " + downloaders + " peers in " + elapsedMillis + " ms");
+        System.out.println("Maximum observed load on peer1: " + maxLoad.get());
+
+        // Uploads must overlap instead of being serialized one at a time
+        assertTrue(maxLoad.get() > 1, "Uploads from peer1 were not served concurrently");
+        String expectedChecksum = computeChecksum(Path.of(resourcePath + "/peer1", FILE_NAME));
+        for (int i = 2; i <= peerNodes.length; i++) {
+            assertEquals(expectedChecksum, computeChecksum(Path.of(resourcePath + "/peer" + i, FILE_NAME)));
+        }
+        assertEquals(0, peerNodes[0].getLoad());
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        // Stop the peer nodes and the tracking server
+        for (PeerNode peerNode : peerNodes) {
+            peerNode.stop();
+        }
+        server.stop();
+        Thread.sleep(1000);
+        // Remove the generated file from every peer
+        for (int i = 1; i <= peerNodes.length; i++) {
+            Path.of(resourcePath + "/peer" + i, FILE_NAME).toFile().delete();
+        }
+    }
+}
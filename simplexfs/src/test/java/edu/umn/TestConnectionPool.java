@@ -0,0 +1,128 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.server.TrackingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static edu.umn.utils.Checksum.computeChecksum;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestConnectionPool {
+    private static final String[] FILE_NAMES = {"pool1.db", "pool2.db"};
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+    private TrackingServer server;
+    private PeerNode peerNode1;
+    private PeerNode peerNode2;
+    private String resourcePath;
+    private String latencyFilePath;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        resourcePath = resourceUrl.getPath();
+        latencyFilePath = resourcePath + "/latency.txt"; // Update this path as needed
+
+        // Generate two files on peer1 so that two downloads from it can run at the same time
+        Random random = new Random(5105);
+        for (String fileName : FILE_NAMES) {
+            byte[] content = new byte[FILE_SIZE];
+            random.nextBytes(content);
+            Files.write(Path.of(resourcePath + "/peer1", fileName), content);
+        }
+
+        // Start the tracking server
+        server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        // Allow time for the server to start accepting connections
+        Thread.sleep(1000);
+
+        peerNode1 = startPeer(1);
+        peerNode2 = startPeer(2);
+        // Allow time for the peer nodes to start
+        Thread.sleep(1000);
+    }
+
+    private PeerNode startPeer(int peer) {
+        PeerNode peerNode = new PeerNode(resourcePath + "/peer" + peer, 8000 + peer, latencyFilePath, "localhost", 8080);
+        peerNode.initialize();
+        new Thread(peerNode::start).start();
+        return peerNode;
+    }
+
+    @Test
+    public void testConnectionReuse() throws Exception {
+        peerNode1.updateFileList();
+
+        // Repeated load probes of the same peer share one connection
+        List<String> peerList = peerNode2.findFile(FILE_NAMES[0]);
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(peerNode2.selectBestPeer(peerList, 0.5));
+        }
+        assertEquals(1, peerNode2.getPooledConnectionCount());
+
+        // Two downloads run on connections of their own while a load probe still uses the pooled one
+        ExecutorService downloadExecutor = Executors.newFixedThreadPool(FILE_NAMES.length);
+        Future<?>[] downloads = new Future<?>[FILE_NAMES.length];
+        for (int i = 0; i < FILE_NAMES.length; i++) {
+            String fileName = FILE_NAMES[i];
+            downloads[i] = downloadExecutor.submit(() -> peerNode2.downloadFile(fileName, "localhost", 8001));
+        }
+        assertNotNull(peerNode2.selectBestPeer(peerList, 0.5));
+        for (Future<?> download : downloads) {
+            assertEquals(true, download.get());
+        }
+        downloadExecutor.shutdown();
+        assertEquals(1, peerNode2.getPooledConnectionCount());
+        assertEquals(0, peerNode2.getDownloadConnectionCount());
+        for (String fileName : FILE_NAMES) {
+            assertEquals(computeChecksum(Path.of(resourcePath + "/peer1", fileName)),
+                    computeChecksum(Path.of(resourcePath + "/peer2", fileName)));
+        }
+    }
+
+    @Test
+    public void testReconnectAfterPeerRestart() throws Exception {
+        peerNode1.updateFileList();
+        List<String> peerList = peerNode2.findFile(FILE_NAMES[0]);
+        assertNotNull(peerNode2.selectBestPeer(peerList, 0.5));
+
+        // The pooled connection dies with the remote peer and is replaced on the next request
+        peerNode1.stop();
+        Thread.sleep(1000);
+        peerNode1 = startPeer(1);
+        Thread.sleep(1000);
+        assertTrue(peerNode2.downloadFile(FILE_NAMES[0], "localhost", 8001));
+        assertEquals(1, peerNode2.getPooledConnectionCount());
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        // Stop the peer nodes and the tracking server
+        peerNode1.stop();
+        peerNode2.stop();
+        server.stop();
+        Thread.sleep(1000);
+        // Remove the generated files from both peers
+        for (String fileName : FILE_NAMES) {
+            Path.of(resourcePath + "/peer1", fileName).toFile().delete();
+            Path.of(resourcePath + "/peer2", fileName).toFile().delete();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.server.TrackingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+public class TestDeltaUpdate {
+    private TrackingServer server;
+    private PeerNode peerNode1;
+    private PeerNode peerNode2;
+    private String resourcePath;
+
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        resourcePath = resourceUrl.getPath();
+        String latencyFilePath = resourcePath + "/latency.txt"; // Update this path as needed
+
+        // Start the tracking server
+        server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        // Allow time for the server to start accepting connections
+        Thread.sleep(1000);
+
+        peerNode1 = new PeerNode(resourcePath + "/peer1", 8001, latencyFilePath, "localhost", 8080);
+        peerNode1.initialize();
+        peerNode2 = new PeerNode(resourcePath + "/peer2", 8002, latencyFilePath, "localhost", 8080);
+        peerNode2.initialize();
+        new Thread(() -> peerNode1.start()).start();
+        new Thread(() -> peerNode2.start()).start();
+        // Allow time for the peer nodes to start
+        Thread.sleep(1000);
+    }
+
+    @Test
+    public void testDeltasAfterFirstUpdate() {
+        peerNode1.updateFileList();
+        peerNode2.updateFileList();
+        assertEquals(0, peerNode1.getFileListVersion());
+        assertEquals(1, peerNode1.getFullFileListUpdateCount());
+
+        // The download is reported as a one-file delta
+        assertNotNull(peerNode1.downloadFile("sample2.txt", peerNode1.findFile("sample2.txt"), 0.5));
+        assertEquals(1, peerNode1.getFileListVersion());
+        assertEquals(1, peerNode1.getFullFileListUpdateCount());
+        assertEquals(2, peerNode2.findFile("sample2.txt").size());
+
+        // So is a removal
+        peerNode1.getFileChecksums().remove("sample2.txt");
+        peerNode1.updateFileList();
+        assertEquals(2, peerNode1.getFileListVersion());
+        assertEquals(1, peerNode1.getFullFileListUpdateCount());
+        assertEquals(1, peerNode2.findFile("sample2.txt").size());
+    }
+
+    @Test
+    public void testResyncAfterVersionMismatch() throws InterruptedException {
+        peerNode1.updateFileList();
+        peerNode2.updateFileList();
+
+        // A restarted tracking server holds no version of the list, so the next update resends all of it
+        server.stop();
+        Thread.sleep(1000);
+        server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        Thread.sleep(1000);
+
+        peerNode1.updateFileList();
+        assertEquals(2, peerNode1.getFullFileListUpdateCount());
+        assertEquals(1, peerNode1.getFileListVersion());
+        assertEquals(1, peerNode2.findFile("sample1.txt").size());
+        assertEquals(0, peerNode2.findFile("sample2.txt").size());
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        // Stop server and peer nodes
+        server.stop();
+        peerNode1.stop();
+        peerNode2.stop();
+        Thread.sleep(1000);
+        // Remove the downloaded file from peer 1
+        Path.of(resourcePath + "/peer1/sample2.txt").toFile().delete();
+    }
+}
@@ -0,0 +1,97 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.server.TrackingServer;
+import edu.umn.utils.Protocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TestEventLoopServer {
+    private static final int PIPELINED_REQUESTS = 100;
+    private TrackingServer server;
+    private PeerNode peerNode1;
+    private PeerNode peerNode2;
+
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        String resourcePath = resourceUrl.getPath();
+        String latencyFilePath = resourcePath + "/latency.txt"; // Update this path as needed
+
+        // Start the tracking server in event-loop mode
+        server = new TrackingServer(8080);
+        server.setEventLoopEnabled(true);
+        server.setWorkerThreads(2);
+        new Thread(() -> server.start()).start();
+        // Allow time for the server to start accepting connections
+        Thread.sleep(1000);
+
+        peerNode1 = new PeerNode(resourcePath + "/peer1", 8001, latencyFilePath, "localhost", 8080);
+        peerNode1.initialize();
+        peerNode2 = new PeerNode(resourcePath + "/peer2", 8002, latencyFilePath, "localhost", 8080);
+        peerNode2.initialize();
+        new Thread(() -> peerNode1.start()).start();
+        new Thread(() -> peerNode2.start()).start();
+        // Allow time for the peer nodes to start
+        Thread.sleep(1000);
+    }
+
+    @Test
+    public void testFindAndUpdateFileList() {
+        peerNode1.updateFileList();
+        peerNode2.updateFileList();
+
+        assertEquals(1, peerNode1.findFile("sample2.txt").size());
+        assertEquals(0, peerNode2.findFile("non-exist.txt").size());
+        assertEquals(3, server.getFileRegistry().size());
+    }
+
+    @Test
+    public void testPipelinedRequests() throws Exception {
+        peerNode1.updateFileList();
+        peerNode2.updateFileList();
+
+        // Send every request before reading any response; each response carries the id of its request
+        try (Socket socket = new Socket("localhost", 8080);
+             DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            for (int requestId = 1; requestId <= PIPELINED_REQUESTS; requestId++) {
+                Protocol.writeMessage(outputStream, requestId, Protocol.FIND, payload -> payload.writeUTF("sample2.txt"));
+            }
+            Set<Integer> answered = new HashSet<>();
+            for (int i = 0; i < PIPELINED_REQUESTS; i++) {
+                Protocol.Message response = Protocol.readMessage(inputStream, Protocol.FIND_RESULT);
+                List<Protocol.PeerEntry> peerList = Protocol.readPeerList(response.payload);
+                assertEquals(1, peerList.size());
+                answered.add(response.requestId);
+            }
+            assertEquals(PIPELINED_REQUESTS, answered.size());
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        // Stop server and peer nodes
+        server.stop();
+        peerNode1.stop();
+        peerNode2.stop();
+        Thread.sleep(1000);
+    }
+}
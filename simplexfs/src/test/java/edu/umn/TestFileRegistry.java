@@ -0,0 +1,127 @@
+package edu.umn;
+
+import edu.umn.server.FileRegistry;
+import edu.umn.server.TrackingServer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Stress test of the tracking server's registry: 1M files on 10k peers, each file stored by two peers,
+// with peers leaving and replacing their lists concurrently while lookups run
+public class TestFileRegistry {
+    private static final int FILE_COUNT = 1_000_000;
+    private static final int PEER_COUNT = 10_000;
+    private static final int FILES_PER_PEER = 2 * FILE_COUNT / PEER_COUNT;
+    private static final int THREADS = 4;
+    private static final String CHECKSUM = "00".repeat(32);
+
+    @Test
+    public void testConcurrentUpdatesOnLargeRegistry() throws Exception {
+        FileRegistry registry = new FileRegistry();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            long startTime = System.nanoTime();
+            runForPeers(executor, 0, PEER_COUNT, peer -> registry.replace("127.0.0.1", peer, 0, fileList(peer, 0)));
+            System.out.println("Registered " + registry.size() + " files of " + PEER_COUNT + " peers in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+            assertEquals(FILE_COUNT, registry.size());
+            assertEquals(2, registry.locate(fileName(0)).peers.size());
+
+            // The first half of the peers leave while the second half replace their lists, and lookups keep running
+            AtomicBoolean updating = new AtomicBoolean(true);
+            Future<Long> lookups = executor.submit(() -> {
+                long count = 0;
+                while (updating.get()) {
+                    int file = (int) (count * 7919 % FILE_COUNT);
+                    // While lists shift by half their length a file is stored by up to three peers
+                    assertTrue(registry.locate(fileName(file)).peers.size() <= 3);
+                    count++;
+                }
+                return count;
+            });
+            startTime = System.nanoTime();
+            runForPeers(executor, 0, PEER_COUNT, peer -> {
+                if (peer < PEER_COUNT / 2) {
+                    assertTrue(registry.removePeer("127.0.0.1:" + peer));
+                } else {
+                    registry.replace("127.0.0.1", peer, 1, fileList(peer, FILES_PER_PEER / 2));
+                }
+            });
+            long updateNanos = System.nanoTime() - startTime;
+            updating.set(false);
+            System.out.println("Removed " + PEER_COUNT / 2 + " peers and replaced " + PEER_COUNT / 2 + " lists in "
+                    + TimeUnit.NANOSECONDS.toMillis(updateNanos) + " ms with " + lookups.get() + " concurrent lookups");
+
+            // Departure of one more peer touches only its own files
+            startTime = System.nanoTime();
+            assertTrue(registry.removePeer("127.0.0.1:" + (PEER_COUNT - 1)));
+            System.out.println("Removed one peer in " + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime) + " us");
+            assertFalse(registry.removePeer("127.0.0.1:" + (PEER_COUNT - 1)));
+
+            // The forward and reverse indexes agree
+            int registrations = 0;
+            for (Map.Entry<String, TrackingServer.FileInfo> entry : registry.asMap().entrySet()) {
+                assertFalse(entry.getValue().peers.isEmpty());
+                for (TrackingServer.PeerInfo peerInfo : entry.getValue().peers.values()) {
+                    assertTrue(peerInfo.getPort() >= PEER_COUNT / 2 && peerInfo.getPort() < PEER_COUNT - 1);
+                    registrations++;
+                }
+            }
+            int expectedRegistrations = 0;
+            for (int peer = PEER_COUNT / 2; peer < PEER_COUNT - 1; peer++) {
+                Set<String> peerFiles = registry.getPeerFiles("127.0.0.1", peer);
+                assertEquals(fileList(peer, FILES_PER_PEER / 2).keySet(), peerFiles);
+                assertEquals(1, registry.getVersion("127.0.0.1", peer));
+                expectedRegistrations += peerFiles.size();
+            }
+            assertEquals(expectedRegistrations, registrations);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface PeerTask {
+        void run(int peer);
+    }
+
+    private static void runForPeers(ExecutorService executor, int from, int to, PeerTask task) throws Exception {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            int first = from + thread;
+            futures.add(executor.submit(() -> {
+                for (int peer = first; peer < to; peer += THREADS) {
+                    task.run(peer);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    // Peer p stores FILES_PER_PEER consecutive files starting at p * FILES_PER_PEER / 2 + shift
+    private static Map<String, String> fileList(int peer, int shift) {
+        Map<String, String> fileList = new HashMap<>();
+        for (int i = 0; i < FILES_PER_PEER; i++) {
+            fileList.put(fileName((peer * (FILES_PER_PEER / 2) + shift + i) % FILE_COUNT), CHECKSUM);
+        }
+        return fileList;
+    }
+
+    private static String fileName(int index) {
+        return "file" + index + ".db";
+    }
+}
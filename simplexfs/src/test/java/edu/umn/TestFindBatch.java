@@ -0,0 +1,108 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.peer.PeerSelectionStrategy;
+import edu.umn.server.TrackingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static edu.umn.utils.Checksum.computeChecksum;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestFindBatch {
+    private TrackingServer server;
+    private PeerNode peerNode1;
+    private PeerNode peerNode2;
+    private PeerNode peerNode3;
+    private PeerNode peerNode4;
+    private String resourcePath;
+
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        resourcePath = resourceUrl.getPath();
+        String latencyFilePath = resourcePath + "/latency.txt"; // Update this path as needed
+
+        // Start the tracking server
+        server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        // Allow time for the server to start accepting connections
+        Thread.sleep(1000);
+
+        peerNode1 = new PeerNode(resourcePath + "/peer1", 8001, latencyFilePath, "localhost", 8080);
+        peerNode1.initialize();
+        peerNode2 = new PeerNode(resourcePath + "/peer2", 8002, latencyFilePath, "localhost", 8080);
+        peerNode2.initialize();
+        peerNode3 = new PeerNode(resourcePath + "/peer3", 8003, latencyFilePath, "localhost", 8080);
+        peerNode3.initialize();
+        peerNode4 = new PeerNode(resourcePath + "/peer4", 8004, latencyFilePath, "localhost", 8080);
+        peerNode4.initialize();
+        new Thread(() -> peerNode1.start()).start();
+        new Thread(() -> peerNode2.start()).start();
+        new Thread(() -> peerNode3.start()).start();
+        new Thread(() -> peerNode4.start()).start();
+        // Allow time for the peer nodes to start
+        Thread.sleep(1000);
+
+        peerNode1.updateFileList();
+        peerNode2.updateFileList();
+        peerNode3.updateFileList();
+        peerNode4.updateFileList();
+    }
+
+    @Test
+    public void testFindByNameAndPrefix() {
+        Map<String, List<String>> locations = peerNode1.findFiles(Arrays.asList("sample2.txt", "sample3.txt", "non-exist.txt"));
+        assertEquals(3, locations.size());
+        assertEquals(peerNode1.findFile("sample2.txt"), locations.get("sample2.txt"));
+        assertEquals(1, locations.get("sample3.txt").size());
+        assertEquals(0, locations.get("non-exist.txt").size());
+
+        // Only registered files are returned for a prefix
+        assertEquals(4, peerNode1.findFilesByPrefix("sample").size());
+        assertEquals(1, peerNode1.findFilesByPrefix("test").size());
+        assertEquals(0, peerNode1.findFilesByPrefix("none").size());
+    }
+
+    @Test
+    public void testDownloadFilesWithPrefix() throws Exception {
+        // peer4 already holds sample4.txt, so only the other three are downloaded
+        Map<String, String> downloaded = peerNode4.downloadFilesWithPrefix("sample", PeerSelectionStrategy.weighted(0.5));
+        assertEquals(3, downloaded.size());
+        for (int i = 1; i <= 3; i++) {
+            String filename = "sample" + i + ".txt";
+            assertTrue(downloaded.get(filename).startsWith("127.0.0.1:800" + i));
+            assertEquals(computeChecksum(Path.of(resourcePath + "/peer" + i + "/" + filename)),
+                    computeChecksum(Path.of(resourcePath + "/peer4/" + filename)));
+        }
+        // The tracking server learned about the new replicas from one update
+        assertEquals(2, peerNode1.findFile("sample1.txt").size());
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        // Stop server and peer nodes
+        server.stop();
+        peerNode1.stop();
+        peerNode2.stop();
+        peerNode3.stop();
+        peerNode4.stop();
+        Thread.sleep(1000);
+        // Remove the downloaded files from peer 4
+        for (int i = 1; i <= 3; i++) {
+            Path.of(resourcePath + "/peer4/sample" + i + ".txt").toFile().delete();
+        }
+    }
+}
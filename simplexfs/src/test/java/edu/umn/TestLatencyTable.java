@@ -0,0 +1,73 @@
+package edu.umn;
+
+import edu.umn.utils.LatencyTable;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class TestLatencyTable {
+    private static final int NODES = 2000;
+
+    @Test
+    public void testReadUpdateAndRemove() {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        LatencyTable latencyTable = new LatencyTable(resourceUrl.getPath() + "/latency.txt");
+        assertEquals(10, latencyTable.size());
+        assertEquals(20, latencyTable.getLatencyMap().size());
+
+        // Each pair is found in both directions
+        int latency = latencyTable.getLatency(8001, 8002);
+        assertEquals(latency, latencyTable.getLatency(8002, 8001));
+        assertEquals(latency, latencyTable.getLatencyMap().get("8002-8001"));
+
+        latencyTable.addOrUpdateLatency(8002, 8001, 42);
+        assertEquals(42, latencyTable.getLatency(8001, 8002));
+        latencyTable.removeLatency(8001, 8002);
+        assertEquals(Integer.MAX_VALUE, latencyTable.getLatency(8001, 8002));
+        assertEquals(9, latencyTable.size());
+        assertEquals(Integer.MAX_VALUE, latencyTable.getLatency(8001, 9000));
+    }
+
+    @Test
+    public void testReadsWhileTableGrows() throws InterruptedException {
+        LatencyTable latencyTable = new LatencyTable();
+        latencyTable.addOrUpdateLatency(0, 1, 7);
+
+        // A reader never misses a pair that was there before, nor sees a latency that was never written
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            int node = 1;
+            while (writing.get()) {
+                if (latencyTable.getLatency(1, 0) != 7) {
+                    failure.set("Lost the first pair");
+                }
+                int latency = latencyTable.getLatency(node, node + 1);
+                if (latency != Integer.MAX_VALUE && latency != node) {
+                    failure.set("Latency " + latency + " between " + node + " and " + (node + 1));
+                }
+                node = node % (NODES - 1) + 1;
+            }
+        });
+        reader.start();
+        for (int node = 1; node < NODES; node++) {
+            for (int other = node + 1; other <= NODES; other++) {
+                latencyTable.addOrUpdateLatency(node, other, other == node + 1 ? node : 100);
+            }
+        }
+        writing.set(false);
+        reader.join();
+        assertNull(failure.get());
+        assertEquals(NODES * (NODES - 1) / 2 + 1, latencyTable.size());
+        assertEquals(NODES - 1, latencyTable.getLatency(NODES, NODES - 1));
+    }
+}
@@ -0,0 +1,87 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.server.TrackingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TestLoadCache {
+    private TrackingServer server;
+    private PeerNode peerNode1;
+    private PeerNode peerNode2;
+    private PeerNode peerNode3;
+
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        String resourcePath = resourceUrl.getPath();
+        String latencyFilePath = resourcePath + "/latency.txt"; // Update this path as needed
+
+        // Start the tracking server
+        server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        // Allow time for the server to start accepting connections
+        Thread.sleep(1000);
+
+        peerNode1 = new PeerNode(resourcePath + "/peer1", 8001, latencyFilePath, "localhost", 8080);
+        peerNode1.initialize();
+        peerNode2 = new PeerNode(resourcePath + "/peer2", 8002, latencyFilePath, "localhost", 8080);
+        peerNode2.initialize();
+        peerNode3 = new PeerNode(resourcePath + "/peer3", 8003, latencyFilePath, "localhost", 8080);
+        peerNode3.initialize();
+        new Thread(() -> peerNode1.start()).start();
+        new Thread(() -> peerNode2.start()).start();
+        new Thread(() -> peerNode3.start()).start();
+        // Allow time for the peer nodes to start
+        Thread.sleep(1000);
+    }
+
+    @Test
+    public void testSelectionWithinTtlDoesNotProbe() {
+        List<String> peerList = new ArrayList<>();
+        peerList.add("127.0.0.1:8001:0000");
+        peerList.add("127.0.0.1:8002:0000");
+
+        peerNode3.selectBestPeer(peerList, 0.5);
+        assertEquals(2, peerNode3.getLoadProbeCount());
+
+        // Both loads were cached by the first selection and kept fresh by the peers' pushes
+        for (int i = 0; i < 10; i++) {
+            peerNode3.selectBestPeer(peerList, 0.5);
+        }
+        assertEquals(2, peerNode3.getLoadProbeCount());
+    }
+
+    @Test
+    public void testZeroTtlAlwaysProbes() {
+        List<String> peerList = new ArrayList<>();
+        peerList.add("127.0.0.1:8001:0000");
+        peerList.add("127.0.0.1:8002:0000");
+        peerNode3.setLoadCacheTtlMillis(0);
+
+        peerNode3.selectBestPeer(peerList, 0.5);
+        peerNode3.selectBestPeer(peerList, 0.5);
+        assertEquals(4, peerNode3.getLoadProbeCount());
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        // Stop server and peer nodes
+        server.stop();
+        peerNode1.stop();
+        peerNode2.stop();
+        peerNode3.stop();
+        Thread.sleep(1000);
+    }
+}
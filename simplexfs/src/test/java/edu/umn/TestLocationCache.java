@@ -0,0 +1,104 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.peer.PeerSelectionStrategy;
+import edu.umn.server.TrackingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestLocationCache {
+    private TrackingServer server;
+    private PeerNode peerNode1;
+    private PeerNode peerNode2;
+    private PeerNode peerNode3;
+    private String resourcePath;
+
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        resourcePath = resourceUrl.getPath();
+        String latencyFilePath = resourcePath + "/latency.txt"; // Update this path as needed
+
+        // Start the tracking server
+        server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        // Allow time for the server to start accepting connections
+        Thread.sleep(1000);
+
+        peerNode1 = new PeerNode(resourcePath + "/peer1", 8001, latencyFilePath, "localhost", 8080);
+        peerNode1.initialize();
+        peerNode2 = new PeerNode(resourcePath + "/peer2", 8002, latencyFilePath, "localhost", 8080);
+        peerNode2.initialize();
+        peerNode3 = new PeerNode(resourcePath + "/peer3", 8003, latencyFilePath, "localhost", 8080);
+        peerNode3.initialize();
+        new Thread(() -> peerNode1.start()).start();
+        new Thread(() -> peerNode2.start()).start();
+        new Thread(() -> peerNode3.start()).start();
+        // Allow time for the peer nodes to start
+        Thread.sleep(1000);
+
+        peerNode1.updateFileList();
+        peerNode2.updateFileList();
+        peerNode3.updateFileList();
+    }
+
+    @Test
+    public void testDownloadAfterFindNeedsNoLookup() {
+        assertEquals(1, peerNode3.findFile("sample2.txt").size());
+        long lookups = peerNode3.getTrackerLookupCount();
+
+        // The checksum of the direct download and the peers of the selected download come from the cache
+        assertTrue(peerNode3.downloadFile("sample2.txt", "127.0.0.1", 8002));
+        assertEquals(lookups, peerNode3.getTrackerLookupCount());
+        assertEquals(1, peerNode3.findFilesByPrefix("test").size());
+        lookups = peerNode3.getTrackerLookupCount();
+        assertNotNull(peerNode3.downloadFile("test10Mb.db", PeerSelectionStrategy.weighted(0.5)));
+        assertEquals(lookups, peerNode3.getTrackerLookupCount());
+
+        // Without a cache every download asks the tracking server
+        peerNode2.setLocationCacheTtlMillis(0);
+        assertNotNull(peerNode2.downloadFile("sample1.txt", PeerSelectionStrategy.weighted(0.5)));
+        assertEquals(1, peerNode2.getTrackerLookupCount());
+    }
+
+    @Test
+    public void testStaleEntryIsLookedUpAgain() {
+        assertEquals(1, peerNode3.locateFile("sample1.txt").size());
+        assertNotNull(peerNode2.downloadFile("sample1.txt", PeerSelectionStrategy.weighted(0.5)));
+
+        // The only cached peer leaves, so the download falls back to the tracking server and finds the new replica
+        peerNode1.stop();
+        long lookups = peerNode3.getTrackerLookupCount();
+        String bestPeer = peerNode3.downloadFile("sample1.txt", PeerSelectionStrategy.weighted(0.5));
+        assertNotNull(bestPeer);
+        assertTrue(bestPeer.startsWith("127.0.0.1:8002"));
+        assertEquals(lookups + 1, peerNode3.getTrackerLookupCount());
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        // Stop server and peer nodes
+        server.stop();
+        peerNode1.stop();
+        peerNode2.stop();
+        peerNode3.stop();
+        Thread.sleep(1000);
+        // Remove the downloaded files
+        Path.of(resourcePath + "/peer3/sample2.txt").toFile().delete();
+        Path.of(resourcePath + "/peer3/test10Mb.db").toFile().delete();
+        Path.of(resourcePath + "/peer3/sample1.txt").toFile().delete();
+        Path.of(resourcePath + "/peer2/sample1.txt").toFile().delete();
+    }
+}
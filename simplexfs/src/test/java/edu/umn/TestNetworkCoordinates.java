@@ -0,0 +1,163 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.server.TrackingServer;
+import edu.umn.utils.NetworkCoordinate;
+import edu.umn.utils.Protocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestNetworkCoordinates {
+    private static final int MAX_PROBES = 300;
+    private TrackingServer server;
+    private PeerNode peerNode1;
+    private PeerNode peerNode2;
+    private PeerNode peerNode3;
+
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        String resourcePath = resourceUrl.getPath();
+
+        // Start the tracking server
+        server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        // Allow time for the server to start accepting connections
+        Thread.sleep(1000);
+
+        // No latency file: latencies to peers never measured come from network coordinates alone
+        peerNode1 = new PeerNode(resourcePath + "/peer1", 8001, null, "localhost", 8080);
+        peerNode1.initialize();
+        peerNode2 = new PeerNode(resourcePath + "/peer2", 8002, null, "localhost", 8080);
+        peerNode2.initialize();
+        peerNode3 = new PeerNode(resourcePath + "/peer3", 8003, null, "localhost", 8080);
+        peerNode3.initialize();
+        new Thread(() -> peerNode1.start()).start();
+        new Thread(() -> peerNode2.start()).start();
+        new Thread(() -> peerNode3.start()).start();
+        // Allow time for the peer nodes to start
+        Thread.sleep(1000);
+
+        peerNode1.updateFileList();
+        peerNode2.updateFileList();
+        peerNode3.updateFileList();
+    }
+
+    @Test
+    public void testCoordinatesPredictSyntheticLatencies() {
+        // 64 nodes on a 200 ms wide plane with 1-10 ms access links; each round every node measures a random other
+        int nodes = 64;
+        Random random = new Random(5105);
+        double[][] positions = new double[nodes][2];
+        double[] accessLinks = new double[nodes];
+        NetworkCoordinate[] coordinates = new NetworkCoordinate[nodes];
+        for (int i = 0; i < nodes; i++) {
+            positions[i][0] = random.nextDouble() * 200;
+            positions[i][1] = random.nextDouble() * 200;
+            accessLinks[i] = 1 + random.nextDouble() * 9;
+            coordinates[i] = NetworkCoordinate.origin();
+        }
+        for (int round = 0; round < 500; round++) {
+            for (int i = 0; i < nodes; i++) {
+                int j = random.nextInt(nodes - 1);
+                j = j >= i ? j + 1 : j;
+                coordinates[i] = coordinates[i].update(coordinates[j], rtt(positions, accessLinks, i, j), random);
+            }
+        }
+
+        double[] relativeErrors = new double[nodes * (nodes - 1) / 2];
+        int pairs = 0;
+        for (int i = 0; i < nodes; i++) {
+            for (int j = i + 1; j < nodes; j++) {
+                double rtt = rtt(positions, accessLinks, i, j);
+                relativeErrors[pairs++] = Math.abs(coordinates[i].distanceTo(coordinates[j]) - rtt) / rtt;
+            }
+        }
+        Arrays.sort(relativeErrors);
+        double medianError = relativeErrors[pairs / 2];
+        System.out.println("Median relative error of " + pairs + " predicted latencies: " + medianError);
+        assertTrue(medianError < 0.1);
+        assertTrue(coordinates[0].getError() < 0.5);
+    }
+
+    @Test
+    public void testCoordinatesSharedThroughTheTracker() throws IOException {
+        // Peers register with their initial coordinate, which the tracking server returns in peer lists
+        List<String> peerList1 = peerNode3.findFile("sample1.txt");
+        List<String> peerList2 = peerNode3.findFile("sample2.txt");
+        assertEquals(3, peerList1.get(0).split(":").length);
+        assertEquals(NetworkCoordinate.origin(), find("sample1.txt").get(0).getCoordinate());
+
+        // Every load probe measures an RTT that moves the prober's coordinate. Round trips on one host are well
+        // below a millisecond, so their jitter is large relative to them and settling takes a few dozen probes
+        peerNode3.setLoadCacheTtlMillis(0);
+        for (int i = 0; i < MAX_PROBES && (i < 30 || peerNode3.getNetworkCoordinate().getError() >= 0.5); i++) {
+            peerNode3.selectBestPeer(Arrays.asList(peerList1.get(0), peerList2.get(0)), 0.5);
+        }
+        assertEquals(peerNode3.getRttSampleCount("127.0.0.1", 8001) + peerNode3.getRttSampleCount("127.0.0.1", 8002),
+                peerNode3.getCoordinateSampleCount());
+        assertNotEquals(NetworkCoordinate.origin(), peerNode3.getNetworkCoordinate());
+        assertTrue(peerNode3.getNetworkCoordinate().getError() < 0.75);
+
+        // Peer 1 learns peer 3's coordinate from the tracking server and settles its own by measuring peer 2, then
+        // predicts its latency to peer 3 without ever measuring it
+        peerNode3.updateFileList();
+        peerNode1.findFile("sample3.txt");
+        assertEquals(peerNode3.getNetworkCoordinate(), find("sample3.txt").get(0).getCoordinate());
+        assertEquals(-1, peerNode1.getPredictedLatencyMillis("127.0.0.1", 8003));
+        peerNode1.setLoadCacheTtlMillis(0);
+        for (int i = 0; i < MAX_PROBES && (i < 30 || peerNode1.getPredictedLatencyMillis("127.0.0.1", 8003) < 0); i++) {
+            peerNode1.selectBestPeer(peerNode1.findFile("sample2.txt"), 0.5);
+        }
+        double predicted = peerNode1.getPredictedLatencyMillis("127.0.0.1", 8003);
+        System.out.println("Predicted latency from peer 1 to peer 3: " + predicted + " ms");
+        assertEquals(0, peerNode1.getRttSampleCount("127.0.0.1", 8003));
+        assertTrue(predicted >= 0 && predicted < 20);
+    }
+
+    // The peer list the tracking server returns for the file, with the coordinates it carries
+    private static List<Protocol.PeerEntry> find(String filename) throws IOException {
+        try (Socket socket = new Socket("localhost", 8080);
+             DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             DataInputStream inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            Protocol.writeMessage(outputStream, Protocol.FIND, payload -> payload.writeUTF(filename));
+            return Protocol.readPeerList(Protocol.readMessage(inputStream, Protocol.FIND_RESULT).payload);
+        }
+    }
+
+    private static double rtt(double[][] positions, double[] accessLinks, int i, int j) {
+        double dx = positions[i][0] - positions[j][0];
+        double dy = positions[i][1] - positions[j][1];
+        return Math.sqrt(dx * dx + dy * dy) + accessLinks[i] + accessLinks[j];
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        // Stop server and peer nodes
+        server.stop();
+        peerNode1.stop();
+        peerNode2.stop();
+        peerNode3.stop();
+        Thread.sleep(1000);
+    }
+}
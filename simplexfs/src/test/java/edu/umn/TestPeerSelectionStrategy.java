@@ -0,0 +1,145 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.peer.PeerSelectionStrategy;
+import edu.umn.server.TrackingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestPeerSelectionStrategy {
+    private TrackingServer server;
+    private PeerNode peerNode1;
+    private PeerNode peerNode2;
+    private PeerNode peerNode3;
+    private String resourcePath;
+
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        resourcePath = resourceUrl.getPath();
+        String latencyFilePath = resourcePath + "/latency.txt"; // Update this path as needed
+
+        // Start the tracking server
+        server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        // Allow time for the server to start accepting connections
+        Thread.sleep(1000);
+
+        peerNode1 = new PeerNode(resourcePath + "/peer1", 8001, latencyFilePath, "localhost", 8080);
+        peerNode1.initialize();
+        peerNode2 = new PeerNode(resourcePath + "/peer2", 8002, latencyFilePath, "localhost", 8080);
+        peerNode2.initialize();
+        peerNode3 = new PeerNode(resourcePath + "/peer3", 8003, latencyFilePath, "localhost", 8080);
+        peerNode3.initialize();
+        new Thread(() -> peerNode1.start()).start();
+        new Thread(() -> peerNode2.start()).start();
+        new Thread(() -> peerNode3.start()).start();
+        // Allow time for the peer nodes to start
+        Thread.sleep(1000);
+    }
+
+    @Test
+    public void testBuiltInStrategies() {
+        assertEquals(50.0, PeerSelectionStrategy.weighted(0.5).score(80, 20));
+        assertEquals(80.0, PeerSelectionStrategy.latencyOnly().score(80, 20));
+        // Least loaded prefers any lower load, and the lower latency between equal loads
+        PeerSelectionStrategy leastLoaded = PeerSelectionStrategy.leastLoaded();
+        assertTrue(leastLoaded.score(5000, 1) < leastLoaded.score(10, 2));
+        assertTrue(leastLoaded.score(10, 1) < leastLoaded.score(20, 1));
+        // A peer whose latency is unknown still wins on load, and loses only to an equally loaded known peer
+        assertTrue(leastLoaded.score(Integer.MAX_VALUE, 0) < leastLoaded.score(10, 2));
+        assertTrue(leastLoaded.score(Integer.MAX_VALUE, 0) < leastLoaded.score(10, 1));
+        assertTrue(leastLoaded.score(10, 0) < leastLoaded.score(Integer.MAX_VALUE, 0));
+
+        List<String> candidates = new ArrayList<>();
+        for (int port = 8001; port <= 8005; port++) {
+            candidates.add("127.0.0.1:" + port + ":0000");
+        }
+        List<String> sampled = PeerSelectionStrategy.powerOfChoices(2, leastLoaded).sample(candidates);
+        assertEquals(2, sampled.size());
+        assertTrue(candidates.containsAll(sampled));
+        assertThrows(IllegalArgumentException.class, () -> PeerSelectionStrategy.forName("fastest", 0.5));
+    }
+
+    @Test
+    public void testStrategyDecidesWhichPeersAreProbed() {
+        List<String> peerList = new ArrayList<>();
+        peerList.add("127.0.0.1:8001:0000");
+        peerList.add("127.0.0.1:8002:0000");
+        peerNode3.setLoadCacheTtlMillis(0);
+
+        // Latency only needs no loads
+        assertNotNull(peerNode3.selectBestPeer(peerList, PeerSelectionStrategy.latencyOnly()));
+        assertEquals(0, peerNode3.getLoadProbeCount());
+
+        // One choice probes one peer however many hold the file
+        assertNotNull(peerNode3.selectBestPeer(peerList,
+                PeerSelectionStrategy.powerOfChoices(1, PeerSelectionStrategy.leastLoaded())));
+        assertEquals(1, peerNode3.getLoadProbeCount());
+
+        assertNotNull(peerNode3.selectBestPeer(peerList, PeerSelectionStrategy.leastLoaded()));
+        assertEquals(3, peerNode3.getLoadProbeCount());
+    }
+
+    @Test
+    public void testSamplingFallsBackToUntriedPeers() {
+        // Nothing listens on 8004 and 8005; two choices out of three often sample only those two
+        List<String> peerList = new ArrayList<>();
+        peerList.add("127.0.0.1:8004:0000");
+        peerList.add("127.0.0.1:8005:0000");
+        peerList.add("127.0.0.1:8001:0000");
+        peerNode3.setLoadCacheTtlMillis(0);
+        PeerSelectionStrategy powerOfTwo = PeerSelectionStrategy.powerOfChoices(2, PeerSelectionStrategy.leastLoaded());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("127.0.0.1:8001:0000", peerNode3.selectBestPeer(peerList, powerOfTwo));
+        }
+    }
+
+    @Test
+    public void testCompletionTimeWeighsBandwidthBySize() {
+        PeerSelectionStrategy completionTime = PeerSelectionStrategy.forName("completion-time", 0.5);
+        // A close peer at 1 MB/s against a far one at 100 MB/s: the close one wins small files only
+        assertTrue(completionTime.score(10, 0, 1e6, 1000) < completionTime.score(200, 0, 1e8, 1000));
+        assertTrue(completionTime.score(10, 0, 1e6, 10_000_000) > completionTime.score(200, 0, 1e8, 10_000_000));
+        // Bandwidth is shared with the transfers a peer already serves
+        assertEquals(210.0, completionTime.score(10, 1, 1e8, 10_000_000));
+
+        // A download measures the bandwidth of the peer it came from
+        peerNode1.updateFileList();
+        peerNode2.updateFileList();
+        assertEquals(-1, peerNode3.getMeasuredBytesPerSecond("127.0.0.1", 8001));
+        String bestPeer = peerNode3.downloadFile("test10Mb.db", completionTime);
+        assertNotNull(bestPeer);
+        int bestPort = Integer.parseInt(bestPeer.split(":")[1]);
+        double bytesPerSecond = peerNode3.getMeasuredBytesPerSecond("127.0.0.1", bestPort);
+        System.out.println("Measured bandwidth of peer " + bestPort + ": " + (long) bytesPerSecond + " bytes/s");
+        assertTrue(bytesPerSecond > 0);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        // Stop server and peer nodes
+        server.stop();
+        peerNode1.stop();
+        peerNode2.stop();
+        peerNode3.stop();
+        Thread.sleep(1000);
+        // Remove the downloaded file from peer 3
+        Path.of(resourcePath + "/peer3/test10Mb.db").toFile().delete();
+    }
+}
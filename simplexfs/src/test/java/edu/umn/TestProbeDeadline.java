@@ -0,0 +1,105 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.server.TrackingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestProbeDeadline {
+    private static final long PROBE_DEADLINE_MILLIS = 300;
+    private TrackingServer server;
+    private PeerNode peerNode1;
+    private PeerNode peerNode2;
+    // Accepts connections on port 8003 but never answers, like a hung peer
+    private ServerSocket hungPeer;
+    private final List<Socket> hungConnections = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        String resourcePath = resourceUrl.getPath();
+        String latencyFilePath = resourcePath + "/latency.txt"; // Update this path as needed
+
+        // Start the tracking server
+        server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        // Allow time for the server to start accepting connections
+        Thread.sleep(1000);
+
+        hungPeer = new ServerSocket(8003);
+        new Thread(() -> {
+            while (!hungPeer.isClosed()) {
+                try {
+                    hungConnections.add(hungPeer.accept());
+                } catch (IOException e) {
+                    // Closed by tearDown
+                }
+            }
+        }).start();
+
+        peerNode1 = new PeerNode(resourcePath + "/peer1", 8001, latencyFilePath, "localhost", 8080);
+        peerNode1.initialize();
+        peerNode2 = new PeerNode(resourcePath + "/peer2", 8002, latencyFilePath, "localhost", 8080);
+        peerNode2.initialize();
+        peerNode2.setProbeDeadlineMillis(PROBE_DEADLINE_MILLIS);
+        new Thread(() -> peerNode1.start()).start();
+        new Thread(() -> peerNode2.start()).start();
+        // Allow time for the peer nodes to start
+        Thread.sleep(1000);
+    }
+
+    @Test
+    public void testHungPeerDoesNotStallSelection() {
+        // The hung peer would win on latency alone, but it never answers its probe
+        List<String> peerList = new ArrayList<>();
+        peerList.add("127.0.0.1:8003:0000");
+        peerList.add("127.0.0.1:8001:0000");
+
+        long startTime = System.currentTimeMillis();
+        String bestPeer = peerNode2.selectBestPeer(peerList, 0.5);
+        long elapsedMillis = System.currentTimeMillis() - startTime;
+
+        assertEquals("127.0.0.1:8001:0000", bestPeer);
+        assertTrue(elapsedMillis < PROBE_DEADLINE_MILLIS + 500, "Selection took " + elapsedMillis + " ms");
+        assertTrue(peerNode2.getLastPeerSelectionMicros() >= PROBE_DEADLINE_MILLIS * 1000);
+        assertTrue(peerNode2.getAveragePeerSelectionMicros() > 0);
+    }
+
+    @Test
+    public void testResponsivePeersFinishBeforeDeadline() {
+        List<String> peerList = new ArrayList<>();
+        peerList.add("127.0.0.1:8001:0000");
+
+        assertEquals("127.0.0.1:8001:0000", peerNode2.selectBestPeer(peerList, 0.5));
+        assertTrue(peerNode2.getLastPeerSelectionMicros() < PROBE_DEADLINE_MILLIS * 1000);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        // Stop server and peer nodes
+        server.stop();
+        peerNode1.stop();
+        peerNode2.stop();
+        hungPeer.close();
+        for (Socket socket : hungConnections) {
+            socket.close();
+        }
+        Thread.sleep(1000);
+    }
+}
@@ -113,6 +113,30 @@ public class TestRecover {
 
     }
 
+    @Test
+    public void testRecoveryCompletesWhenPeersAnswer() throws InterruptedException {
+        peerNode1.updateFileList();
+        peerNode2.updateFileList();
+        server.stop();
+        peerNode2.stop();
+        Thread.sleep(1000);
+
+        // The restarted server waits for the one live peer, not for the recovery timeout
+        long startTime = System.currentTimeMillis();
+        new Thread(() -> server.start()).start();
+        Thread.sleep(1000);
+        assertEquals(1, peerNode1.findFile("sample1.txt").size());
+        assertTrue(System.currentTimeMillis() - startTime < 5000);
+
+        TrackingServer.RecoveryReport report = server.getLastRecovery();
+        System.out.println("Recovery: " + report);
+        assertEquals(2, report.getPeers());
+        assertEquals(1, report.getResponders());
+        assertTrue(report.getDurationMillis() < 1000);
+        // The peer that did not answer was forgotten
+        assertEquals(0, peerNode1.findFile("sample2.txt").size());
+    }
+
     @AfterEach
     public void tearDown() throws InterruptedException {
         // Stop server and peer nodes
@@ -0,0 +1,173 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.server.FileRegistry;
+import edu.umn.server.TrackingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestRegistryLog {
+    private static final String CHECKSUM = "00".repeat(32);
+    private TrackingServer server;
+    private TrackingServer restoredServer;
+    private PeerNode peerNode1;
+    private PeerNode peerNode2;
+    private Path stateDirectory;
+    private Path copiedStateDirectory;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        String resourcePath = resourceUrl.getPath();
+        String latencyFilePath = resourcePath + "/latency.txt"; // Update this path as needed
+        stateDirectory = Files.createTempDirectory("registry");
+
+        // Start the tracking server
+        server = new TrackingServer(8080);
+        server.setStateDirectory(stateDirectory.toString());
+        new Thread(() -> server.start()).start();
+        // Allow time for the server to start accepting connections
+        Thread.sleep(1000);
+
+        peerNode1 = new PeerNode(resourcePath + "/peer1", 8001, latencyFilePath, "localhost", 8080);
+        peerNode1.initialize();
+        peerNode2 = new PeerNode(resourcePath + "/peer2", 8002, latencyFilePath, "localhost", 8080);
+        peerNode2.initialize();
+        new Thread(() -> peerNode1.start()).start();
+        new Thread(() -> peerNode2.start()).start();
+        // Allow time for the peer nodes to start
+        Thread.sleep(1000);
+
+        peerNode1.updateFileList();
+        peerNode2.updateFileList();
+    }
+
+    @Test
+    public void testRestoreFromSnapshotAfterRestart() throws InterruptedException {
+        // Stopping writes a snapshot that the restarted tracking server loads before it accepts connections
+        server.stop();
+        Thread.sleep(1000);
+        server = new TrackingServer(8080);
+        server.setStateDirectory(stateDirectory.toString());
+        new Thread(() -> server.start()).start();
+        Thread.sleep(1000);
+
+        assertEquals(1, peerNode2.findFile("sample1.txt").size());
+        assertEquals(1, peerNode1.findFile("sample2.txt").size());
+        long timeToFirstFind = server.getTimeToFirstFindMicros();
+        System.out.println("Time to first FIND after restart: " + timeToFirstFind + " us");
+        assertTrue(timeToFirstFind >= 0);
+
+        // The restored version accepts the peer's next change as a delta
+        peerNode1.getFileChecksums().remove("sample1.txt");
+        peerNode1.updateFileList();
+        assertEquals(1, peerNode1.getFullFileListUpdateCount());
+        assertEquals(1, peerNode1.getFileListVersion());
+        assertEquals(0, peerNode2.findFile("sample1.txt").size());
+    }
+
+    @Test
+    public void testReplayLogAfterCrash() throws Exception {
+        // A copy of the state directory taken while the tracking server runs is what a crash leaves behind:
+        // no snapshot yet, and a log segment that may end in a torn record
+        copiedStateDirectory = Files.createTempDirectory("registry");
+        File[] segments = stateDirectory.toFile().listFiles();
+        assertTrue(segments != null && segments.length > 0);
+        for (File segment : segments) {
+            Files.copy(segment.toPath(), copiedStateDirectory.resolve(segment.getName()));
+            try (FileOutputStream out = new FileOutputStream(copiedStateDirectory.resolve(segment.getName()).toFile(), true)) {
+                out.write(new byte[]{0, 0, 0, 42, 1, 2});
+            }
+        }
+
+        restoredServer = new TrackingServer(8081);
+        restoredServer.setStateDirectory(copiedStateDirectory.toString());
+        new Thread(() -> restoredServer.start()).start();
+        Thread.sleep(1000);
+
+        assertEquals(1, restoredServer.getFileRegistry().get("sample1.txt").peers.size());
+        assertEquals(1, restoredServer.getFileRegistry().get("sample2.txt").peers.size());
+        assertNull(restoredServer.getFileRegistry().get("non-exist.txt"));
+    }
+
+    @Test
+    public void testUnloggedChangeForcesFullList() {
+        // A listener that fails like a full disk
+        FileRegistry registry = new FileRegistry();
+        registry.replace("127.0.0.1", 8003, 0, Map.of("a.txt", CHECKSUM));
+        registry.setChangeListener(new FileRegistry.ChangeListener() {
+            @Override
+            public void replaced(String ipAddress, int port, long version, Map<String, String> fileList) throws IOException {
+                throw new IOException("No space left on device");
+            }
+
+            @Override
+            public void deltaApplied(String ipAddress, int port, long baseVersion, Map<String, String> addedFiles,
+                                     List<String> removedFiles) throws IOException {
+                throw new IOException("No space left on device");
+            }
+
+            @Override
+            public void peerRemoved(String peerKey) throws IOException {
+                throw new IOException("No space left on device");
+            }
+        });
+
+        // A delta that was not logged is refused, and no later delta builds on it
+        assertEquals(-1, registry.applyDelta("127.0.0.1", 8003, 0, Map.of("b.txt", CHECKSUM), List.of()));
+        assertEquals(FileRegistry.UNVERSIONED, registry.getVersion("127.0.0.1", 8003));
+        assertEquals(-1, registry.applyDelta("127.0.0.1", 8003, 1, Map.of("c.txt", CHECKSUM), List.of()));
+
+        // The whole list replaces the one held here, but stays unversioned until it is logged
+        registry.replace("127.0.0.1", 8003, 2, Map.of("a.txt", CHECKSUM, "b.txt", CHECKSUM));
+        assertEquals(2, registry.getPeerFiles("127.0.0.1", 8003).size());
+        assertEquals(FileRegistry.UNVERSIONED, registry.getVersion("127.0.0.1", 8003));
+        registry.setChangeListener(null);
+        registry.replace("127.0.0.1", 8003, 2, Map.of("a.txt", CHECKSUM, "b.txt", CHECKSUM));
+        assertEquals(2, registry.getVersion("127.0.0.1", 8003));
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException, IOException {
+        // Stop servers and peer nodes
+        server.stop();
+        if (restoredServer != null) {
+            restoredServer.stop();
+        }
+        peerNode1.stop();
+        peerNode2.stop();
+        Thread.sleep(1000);
+        deleteDirectory(stateDirectory);
+        if (copiedStateDirectory != null) {
+            deleteDirectory(copiedStateDirectory);
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+}
@@ -0,0 +1,109 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.server.TrackingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static edu.umn.utils.Checksum.computeChecksum;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestResumeDownload {
+    private static final String FILE_NAME = "resume12Mb.db";
+    private static final int PREFIX_LENGTH = 5 * 1024 * 1024;
+    private TrackingServer server;
+    private PeerNode peerNode1;
+    private PeerNode peerNode2;
+    private String resourcePath;
+    private byte[] content;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        resourcePath = resourceUrl.getPath();
+        String latencyFilePath = resourcePath + "/latency.txt"; // Update this path as needed
+
+        content = new byte[12 * 1024 * 1024];
+        new Random(5105).nextBytes(content);
+        Files.write(Path.of(resourcePath + "/peer1", FILE_NAME), content);
+
+        // Start the tracking server
+        server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        // Allow time for the server to start accepting connections
+        Thread.sleep(1000);
+
+        // Initialize peer nodes using the test resources directory
+        peerNode1 = new PeerNode(resourcePath + "/peer1", 8001, latencyFilePath, "localhost", 8080);
+        peerNode1.initialize();
+        peerNode2 = new PeerNode(resourcePath + "/peer2", 8002, latencyFilePath, "localhost", 8080);
+        peerNode2.initialize();
+
+        // Start peer nodes in separate threads
+        new Thread(() -> peerNode1.start()).start();
+        new Thread(() -> peerNode2.start()).start();
+        // Allow time for the peer nodes to start
+        Thread.sleep(1000);
+    }
+
+    @Test
+    public void testResumeDownload() throws Exception {
+        peerNode1.updateFileList();
+        String checksum = computeChecksum(Path.of(resourcePath + "/peer1", FILE_NAME));
+        Path partialPath = Path.of(resourcePath + "/peer2", FILE_NAME + ".part");
+        Path statePath = Path.of(resourcePath + "/peer2", FILE_NAME + ".part.state");
+
+        // A corrupted prefix is resumed from, so verification fails and the partial download is discarded
+        byte[] corruptedPrefix = Arrays.copyOf(content, PREFIX_LENGTH);
+        corruptedPrefix[0] ^= 1;
+        Files.write(partialPath, corruptedPrefix);
+        Files.writeString(statePath, checksum + "," + PREFIX_LENGTH + "\n");
+        assertFalse(peerNode2.downloadFile(FILE_NAME, "localhost", 8001));
+        assertFalse(Files.exists(partialPath));
+        assertFalse(Files.exists(statePath));
+
+        // An interrupted download continues from the recorded byte and produces the complete file
+        Files.write(partialPath, Arrays.copyOf(content, PREFIX_LENGTH));
+        Files.writeString(statePath, checksum + "," + PREFIX_LENGTH + "\n");
+        List<String> peerList = peerNode2.findFile(FILE_NAME);
+        peerNode2.downloadFile(FILE_NAME, peerList, 0.5);
+        assertEquals(checksum, computeChecksum(Path.of(resourcePath + "/peer2", FILE_NAME)));
+        assertFalse(Files.exists(partialPath));
+        assertFalse(Files.exists(statePath));
+
+        // A partial download of a different checksum is not reused
+        Files.delete(Path.of(resourcePath + "/peer2", FILE_NAME));
+        Files.write(partialPath, corruptedPrefix);
+        Files.writeString(statePath, "0000," + PREFIX_LENGTH + "\n");
+        assertTrue(peerNode2.downloadFile(FILE_NAME, "localhost", 8001));
+        assertEquals(checksum, computeChecksum(Path.of(resourcePath + "/peer2", FILE_NAME)));
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        // Stop the peer nodes and the tracking server
+        peerNode1.stop();
+        peerNode2.stop();
+        server.stop();
+        Thread.sleep(1000);
+        // Remove the generated file from both peers
+        Path.of(resourcePath + "/peer1", FILE_NAME).toFile().delete();
+        Path.of(resourcePath + "/peer2", FILE_NAME).toFile().delete();
+        Path.of(resourcePath + "/peer2", FILE_NAME + ".part").toFile().delete();
+        Path.of(resourcePath + "/peer2", FILE_NAME + ".part.state").toFile().delete();
+    }
+}
@@ -0,0 +1,100 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.server.TrackingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestRttEstimate {
+    private TrackingServer server;
+    private PeerNode peerNode1;
+    private PeerNode peerNode2;
+    private PeerNode peerNode3;
+    private String resourcePath;
+
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        resourcePath = resourceUrl.getPath();
+        String latencyFilePath = resourcePath + "/latency.txt"; // Update this path as needed
+
+        // Start the tracking server
+        server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        // Allow time for the server to start accepting connections
+        Thread.sleep(1000);
+
+        peerNode1 = new PeerNode(resourcePath + "/peer1", 8001, latencyFilePath, "localhost", 8080);
+        peerNode1.initialize();
+        peerNode2 = new PeerNode(resourcePath + "/peer2", 8002, latencyFilePath, "localhost", 8080);
+        peerNode2.initialize();
+        peerNode3 = new PeerNode(resourcePath + "/peer3", 8003, latencyFilePath, "localhost", 8080);
+        peerNode3.initialize();
+        new Thread(() -> peerNode1.start()).start();
+        new Thread(() -> peerNode2.start()).start();
+        new Thread(() -> peerNode3.start()).start();
+        // Allow time for the peer nodes to start
+        Thread.sleep(1000);
+
+        peerNode1.updateFileList();
+        peerNode2.updateFileList();
+    }
+
+    @Test
+    public void testProbesRefineTheStaticLatency() {
+        List<String> peerList = Arrays.asList("127.0.0.1:8001:checksum", "127.0.0.1:8002:checksum");
+        peerNode3.setLoadCacheTtlMillis(0);
+        assertEquals(-1, peerNode3.getMeasuredLatencyMillis("127.0.0.1", 8001));
+
+        // Every load probe is a sample; the estimate starts at the static latency and moves toward the samples
+        assertTrue(peerNode3.selectBestPeer(peerList, 0.5).startsWith("127.0.0.1:8001"));
+        assertEquals(1, peerNode3.getRttSampleCount("127.0.0.1", 8001));
+        double firstEstimate = peerNode3.getMeasuredLatencyMillis("127.0.0.1", 8001);
+        assertTrue(firstEstimate < 2007 && firstEstimate > 1000);
+        for (int i = 0; i < 60; i++) {
+            peerNode3.selectBestPeer(peerList, 0.5);
+        }
+        // Both peers run on this host, so the measured round trips are far below the static 2007 and 3918 ms
+        double latency1 = peerNode3.getMeasuredLatencyMillis("127.0.0.1", 8001);
+        double latency2 = peerNode3.getMeasuredLatencyMillis("127.0.0.1", 8002);
+        System.out.println("Measured latency to peer 1: " + latency1 + " ms, to peer 2: " + latency2 + " ms");
+        assertTrue(latency1 < 20);
+        assertTrue(latency2 < 20);
+
+        // A download is no sample: its first frame also waits for the file's lock and disk on the other peer
+        long samples = peerNode3.getRttSampleCount("127.0.0.1", 8001);
+        assertTrue(peerNode3.downloadFile("sample1.txt", "127.0.0.1", 8001));
+        assertEquals(samples, peerNode3.getRttSampleCount("127.0.0.1", 8001));
+
+        // An explicit latency replaces what was measured until new samples arrive
+        peerNode3.updateLatencyTable(8001, 5000);
+        assertEquals(-1, peerNode3.getMeasuredLatencyMillis("127.0.0.1", 8001));
+        peerNode3.setLoadCacheTtlMillis(60000);
+        assertTrue(peerNode3.selectBestPeer(peerList, 0).startsWith("127.0.0.1:8002"));
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        // Stop server and peer nodes
+        server.stop();
+        peerNode1.stop();
+        peerNode2.stop();
+        peerNode3.stop();
+        Thread.sleep(1000);
+        // Remove the downloaded file from peer 3
+        Path.of(resourcePath + "/peer3/sample1.txt").toFile().delete();
+    }
+}
@@ -0,0 +1,114 @@
+package edu.umn;
+
+import edu.umn.peer.PeerNode;
+import edu.umn.server.TrackingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static edu.umn.utils.Checksum.computeChecksum;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestSwarmDownload {
+    private static final String FILE_NAME = "swarm5Mb.db";
+    private TrackingServer server;
+    private PeerNode peerNode1;
+    private PeerNode peerNode2;
+    private PeerNode peerNode3;
+    private String resourcePath;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // Get the path to the test resources directory
+        URL resourceUrl = getClass().getClassLoader().getResource("files");
+        if (resourceUrl == null) {
+            throw new RuntimeException("Test resources not found");
+        }
+        resourcePath = resourceUrl.getPath();
+        String latencyFilePath = resourcePath + "/latency.txt"; // Update this path as needed
+
+        // A file that does not end on a chunk boundary, shared by peer1 and peer2
+        byte[] content = new byte[5 * 1024 * 1024 + 12345];
+        new Random(5105).nextBytes(content);
+        Files.write(Path.of(resourcePath + "/peer1", FILE_NAME), content);
+        Files.write(Path.of(resourcePath + "/peer2", FILE_NAME), content);
+
+        // Start the tracking server
+        server = new TrackingServer(8080);
+        new Thread(() -> server.start()).start();
+        // Allow time for the server to start accepting connections
+        Thread.sleep(1000);
+
+        // Initialize peer nodes using the test resources directory
+        peerNode1 = new PeerNode(resourcePath + "/peer1", 8001, latencyFilePath, "localhost", 8080);
+        peerNode1.initialize();
+        peerNode2 = new PeerNode(resourcePath + "/peer2", 8002, latencyFilePath, "localhost", 8080);
+        peerNode2.initialize();
+        peerNode3 = new PeerNode(resourcePath + "/peer3", 8003, latencyFilePath, "localhost", 8080);
+        peerNode3.initialize();
+
+        // Start peer nodes in separate threads
+        new Thread(() -> peerNode1.start()).start();
+        new Thread(() -> peerNode2.start()).start();
+        new Thread(() -> peerNode3.start()).start();
+        // Allow time for the peer nodes to start
+        Thread.sleep(1000);
+    }
+
+    @Test
+    public void testSwarmDownload() throws Exception {
+        // Update file list to the tracking server
+        peerNode1.updateFileList();
+        peerNode2.updateFileList();
+
+        // Peer3 downloads the file in chunks from peer1 and peer2
+        List<String> peerList = peerNode3.findFile(FILE_NAME);
+        assertEquals(2, peerList.size());
+        assertTrue(peerNode3.swarmDownload(FILE_NAME, peerList));
+
+        String expectedChecksum = computeChecksum(Path.of(resourcePath + "/peer1", FILE_NAME));
+        assertEquals(expectedChecksum, computeChecksum(Path.of(resourcePath + "/peer3", FILE_NAME)));
+        assertFalse(Files.exists(Path.of(resourcePath + "/peer3", FILE_NAME + ".part")));
+        // Peer3 registers itself as a new replica
+        assertEquals(3, peerNode3.findFile(FILE_NAME).size());
+        assertEquals(0, peerNode1.getLoad());
+        assertEquals(0, peerNode2.getLoad());
+    }
+
+    @Test
+    public void testSwarmDownloadWithDeadSource() throws Exception {
+        peerNode1.updateFileList();
+
+        // Nothing listens on 8004; its chunks go to the live source
+        List<String> peerList = new ArrayList<>(peerNode3.findFile(FILE_NAME));
+        assertEquals(1, peerList.size());
+        peerList.add("127.0.0.1:8004:" + peerList.get(0).split(":")[2]);
+        assertTrue(peerNode3.swarmDownload(FILE_NAME, peerList));
+        assertEquals(computeChecksum(Path.of(resourcePath + "/peer1", FILE_NAME)),
+                computeChecksum(Path.of(resourcePath + "/peer3", FILE_NAME)));
+        assertEquals(0, peerNode3.getDownloadConnectionCount());
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        // Stop the peer nodes and the tracking server
+        peerNode1.stop();
+        peerNode2.stop();
+        peerNode3.stop();
+        server.stop();
+        Thread.sleep(1000);
+        // Remove the generated file from every peer
+        for (int i = 1; i <= 3; i++) {
+            Path.of(resourcePath + "/peer" + i, FILE_NAME).toFile().delete();
+        }
+    }
+}